@@ -0,0 +1,238 @@
+package reversi;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * A long-running HTTP service on localhost that answers queries about positions. The solved
+ * states (StateAnalyzer.coincDict) and the models stay in memory between the queries, so the
+ * positions that were already solved are answered right away, and the others are searched for at
+ * most a given time.
+ *
+ * GET /analyze?code=A,B&timeout=MS analyzes the state with the given code (see
+ * BoardState.getCode(); the board is restored in its canonical orientation and colors, see
+ * BoardState.fromCode()). POST /analyze with a board in the form printed by BoardState.toString()
+ * as the body does the same for that board (the timeout can still be given in the query). The
+ * answer consists of three lines: "result: WHITE|DARK|NONE|UNKNOWN", "move: ROW COLUMN|pass|none"
+ * (the best move known, see AnytimeSolver) and "source: table|search|timeout". GET /stats reports
+ * the latencies of the queries.
+ *
+ * The queries are handled by a bounded pool of threads. If the queue of the pool is full, the
+ * query is rejected with 503.
+ */
+public class AnalysisServer {
+
+    private final static Logger logger = Logger.getLogger(AnalysisServer.class);
+    private static final int PORT = 8036; // default port
+    private static final int QUEUE_SIZE = 1024; // maximum number of queries waiting to be handled
+    private static final long DEFAULT_TIMEOUT = 1000; // default time limit of a search (ms)
+    private static final int LATENCIES = 1 << 14; // number of latest queries to keep latencies of
+
+    private final ThreadPoolExecutor executor;
+    private final long[] latencies = new long[LATENCIES]; // latest latencies (ns), circular
+    private long queries = 0; // total number of queries answered
+    private long rejected = 0; // total number of queries rejected
+
+    /**
+     * Default constructor
+     * @param threads number of queries handled at the same time
+     */
+    public AnalysisServer(int threads) {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE));
+    }
+
+    /**
+     * Launch the service. Arguments: optionally "-port N" and "-threads N" (all the cores by
+     * default)
+     * @param args
+     */
+    public static void main(String[] args) {
+        int port = PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++)
+            if (args[i].equals("-port"))
+                port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-threads"))
+                threads = Integer.parseInt(args[++i]);
+        StateClassifier.preloadModels(StateAnalyzer.getMinimaxEvaluationLevels());
+        // the queries are analyzed at the same time, so a single query should not use multiple
+        // threads (see BatchSolver)
+        StateAnalyzer.multithreading = false;
+        try {
+            new AnalysisServer(threads).start(port);
+        } catch (IOException e) {
+            logger.error("Could not start the server: " + e);
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Start listening on localhost
+     * @param port
+     * @throws IOException
+     */
+    public void start(int port) throws IOException {
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/analyze", exchange -> dispatch(exchange, true));
+        server.createContext("/stats", exchange -> dispatch(exchange, false));
+        server.start();
+        logger.info("Listening on localhost:" + port);
+    }
+
+    /**
+     * Hand a query over to the pool of threads or reject it, if the pool is overloaded
+     * @param exchange
+     * @param analyze whether this is an /analyze query (or a /stats one)
+     */
+    private void dispatch(HttpExchange exchange, boolean analyze) {
+        long timeStart = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    if (analyze) {
+                        respond(exchange, 200, analyze(exchange));
+                        recordLatency(System.nanoTime() - timeStart);
+                    } else
+                        respond(exchange, 200, getStats());
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, e.getMessage() + "\n");
+                } catch (IOException | RuntimeException e) {
+                    respond(exchange, 500, e + "\n");
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (latencies) {
+                rejected += 1;
+            }
+            respond(exchange, 503, "Too many queries\n");
+        }
+    }
+
+    /**
+     * Answer an /analyze query
+     * @param exchange
+     * @return the answer (see the description of the class)
+     * @throws IOException
+     */
+    private String analyze(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        long timeout = DEFAULT_TIMEOUT;
+        String code = null;
+        if (query != null)
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("timeout="))
+                    timeout = Long.parseLong(parameter.substring("timeout=".length()));
+                else if (parameter.startsWith("code="))
+                    code = parameter.substring("code=".length());
+            }
+        BoardState state;
+        if (code != null) {
+            String[] values = code.split(",");
+            if (values.length != 2)
+                throw new IllegalArgumentException("A code consists of two numbers");
+            state = BoardState.fromCode(new long[] {Long.parseLong(values[0].trim()),
+                    Long.parseLong(values[1].trim())});
+        } else
+            state = BoardState.fromString(readBody(exchange.getRequestBody()));
+
+        AnytimeSolver.Result result = AnytimeSolver.analyze(state,
+                System.currentTimeMillis() + timeout);
+        SearchTracer.flush();
+        int best = result.getBestMove();
+        String move = (best == -1) ? "none" : AnytimeSolver.Result.getMove(result.tiles[best]);
+        String source = (result.winner == null) ? "timeout" :
+                (result.searched ? "search" : "table");
+        return "result: " + ((result.winner == null) ? "UNKNOWN" : result.winner.toString()) +
+                "\nmove: " + move + "\nsource: " + source + "\n";
+    }
+
+    /**
+     * Get the report about the latencies of the queries
+     * @return
+     */
+    private String getStats() {
+        long[] sorted;
+        long total;
+        long totalRejected;
+        synchronized (latencies) {
+            total = queries;
+            totalRejected = rejected;
+            sorted = Arrays.copyOf(latencies, (int) Math.min(queries, LATENCIES));
+        }
+        Arrays.sort(sorted);
+        return "queries: " + total + "\nrejected: " + totalRejected + "\np50: " +
+                getPercentile(sorted, 50) + " ms\np99: " + getPercentile(sorted, 99) + " ms\n";
+    }
+
+    /**
+     * Record the latency of a query
+     * @param latency in nanoseconds
+     */
+    private void recordLatency(long latency) {
+        synchronized (latencies) {
+            latencies[(int) (queries % LATENCIES)] = latency;
+            queries += 1;
+        }
+    }
+
+    /**
+     * Get a percentile of sorted latencies
+     * @param sorted latencies in nanoseconds
+     * @param percentile
+     * @return the percentile in milliseconds
+     */
+    private static double getPercentile(long[] sorted, int percentile) {
+        if (sorted.length == 0)
+            return 0;
+        int i = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    /**
+     * Read the body of a query
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int read; (read = in.read(buffer)) != -1; )
+            result.write(buffer, 0, read);
+        return result.toString(StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Send a response and close the exchange
+     * @param exchange
+     * @param status
+     * @param body
+     */
+    private static void respond(HttpExchange exchange, int status, String body) {
+        try {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not respond to a query: " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+}
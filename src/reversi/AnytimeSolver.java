@@ -0,0 +1,183 @@
+package reversi;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import static reversi.BoardState.*;
+import static reversi.Disk.*;
+
+/**
+ * Analyzes a state for at most a given time. If the state is solved in time, the result is the
+ * same as that of StateAnalyzer.analyze(). Otherwise, the search is stopped at the deadline (see
+ * SearchControl) and the result contains everything that is known by then: the moves that were
+ * already solved and a minimax estimate of the score of every other move.
+ *
+ * The moves are first looked up in StateAnalyzer.coincDict, then estimated with a shallow minimax
+ * search and solved one by one, starting with the most promising one. The states solved before
+ * the deadline stay in the dictionaries, so the next search of the same state continues where
+ * this one has stopped.
+ */
+public class AnytimeSolver {
+
+    private static final int ESTIMATE_DEPTH = 4; // depth of the minimax search that estimates moves
+    public static final byte PASS = -1; // the tile of the only move of a state that has to pass
+    private static final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "deadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // stops the searches that reach their deadlines
+
+    /**
+     * What is known about a state when the search is over
+     */
+    public static class Result {
+        public final Disk winner; // the proven winner or null, if it is unknown
+        public final byte[] tiles;
+        // the tiles of the moves (PASS, if the player has to pass, and none if the game is over)
+        public final Disk[] winners; // the winner after each move or null, if it is unknown
+        public final byte[] estimates;
+        // estimated score difference after each move for the player to make a move (only for the
+        // moves with unknown winners)
+        public final boolean searched; // whether any state had to be searched (or all were known)
+        public final Disk turn; // the player to make a move
+
+        Result(Disk winner, byte[] tiles, Disk[] winners, byte[] estimates, boolean searched,
+               Disk turn) {
+            this.winner = winner;
+            this.tiles = tiles;
+            this.winners = winners;
+            this.estimates = estimates;
+            this.searched = searched;
+            this.turn = turn;
+        }
+
+        /**
+         * Get the best move known: a move that is proven to win, or else the move with the best
+         * estimate, or else a move proven to lead to a truce (a move proven to lose only if all of
+         * them do)
+         * @return the index of the move or -1, if the game is over
+         */
+        public int getBestMove() {
+            int best = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < tiles.length; i++) {
+                double value;
+                if (winners[i] == turn)
+                    value = MAX + 1;
+                else if (winners[i] == NONE)
+                    value = 0;
+                else if (winners[i] != null)
+                    value = -MAX - 1;
+                else // an unknown move is preferred to a truce only if it is expected to win
+                    value = (estimates[i] > 0) ? estimates[i] : estimates[i] - 0.5;
+                if (value > bestValue) {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Convert a tile to "ROW COLUMN" (or "pass")
+         * @param tile
+         * @return
+         */
+        public static String getMove(byte tile) {
+            return (tile == PASS) ? "pass" : (tile / DIM) + " " + (tile % DIM);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("Result: ")
+                    .append((winner == null) ? "unknown" : winner.toString()).append('\n');
+            for (int i = 0; i < tiles.length; i++) {
+                result.append(getMove(tiles[i])).append(": ");
+                if (winners[i] != null)
+                    result.append(winners[i]);
+                else
+                    result.append("unknown, estimated score ").append(estimates[i]);
+                result.append('\n');
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Analyze a state until it is solved or the deadline is reached
+     * @param position
+     * @param deadline in System.currentTimeMillis() time
+     * @return
+     */
+    public static Result analyze(BoardState position, long deadline) {
+        BoardState state = new BoardState(position);
+        MoveIterator moves = new MoveIterator(state, (byte) -1);
+        BoardState[] children;
+        byte[] tiles;
+        if (moves.size() == 0) {
+            BoardState reversed = new BoardState(state);
+            reversed.reverseTurn();
+            if (new MoveIterator(reversed, (byte) -1).size() == 0) { // the game is over
+                int difference = state.getScoreDifference();
+                Disk winner = (difference > 0) ? state.getTurn() :
+                        ((difference < 0) ? getReverse(state.getTurn()) : NONE);
+                return new Result(winner, new byte[0], new Disk[0], new byte[0], false,
+                        state.getTurn());
+            }
+            children = new BoardState[] {reversed};
+            tiles = new byte[] {PASS};
+        } else {
+            children = new BoardState[moves.size()];
+            tiles = new byte[moves.size()];
+            for (int i = 0; moves.hasNext(); i++) {
+                children[i] = moves.next();
+                tiles[i] = moves.getLastTile();
+            }
+        }
+
+        Disk turn = state.getTurn();
+        Disk[] winners = new Disk[children.length];
+        byte[] estimates = new byte[children.length];
+        for (int i = 0; i < children.length; i++) {
+            winners[i] = StateAnalyzer.getFromDict(children[i]);
+            if (winners[i] == turn)
+                return new Result(turn, tiles, winners, estimates, false, turn);
+        }
+        SearchControl control = new SearchControl();
+        ScheduledFuture<?> stop = timer.schedule(control::stop,
+                Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        boolean searched = false;
+        try {
+            for (int i = 0; i < children.length; i++) {
+                control.check();
+                if (winners[i] == null) // the score of a child is the opposite of the estimate
+                    estimates[i] = (byte) -new StateAnalyzer(new BoardState(children[i]),
+                            control, 0).estimate(ESTIMATE_DEPTH);
+            }
+            Integer[] order = new Integer[children.length]; // the most promising moves first
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, Comparator.comparingInt(i -> -estimates[i]));
+            for (int i : order) {
+                if (winners[i] != null)
+                    continue;
+                searched = true;
+                winners[i] = new StateAnalyzer(new BoardState(children[i]), control, 0).analyze();
+                if (winners[i] == turn)
+                    return new Result(turn, tiles, winners, estimates, true, turn);
+            }
+        } catch (SearchAbortedException e) {
+            return new Result(null, tiles, winners, estimates, searched, turn);
+        } finally {
+            stop.cancel(false);
+        }
+        // no move leads to victory. A truce is the next best thing
+        Disk winner = Arrays.asList(winners).contains(NONE) ? NONE : getReverse(turn);
+        return new Result(winner, tiles, winners, estimates, searched, turn);
+    }
+}
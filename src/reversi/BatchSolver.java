@@ -0,0 +1,187 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static reversi.BoardState.*;
+
+/**
+ * Solves many positions in one run. The positions are read from a file and distributed between
+ * the threads, which share the dictionaries of StateAnalyzer (so that the states solved for one
+ * position are reused for the others). Each result is appended to the results file as soon as it
+ * is found, and the positions that are already in the results file are skipped, so an
+ * interrupted run can be resumed.
+ *
+ * The positions can be given either as text (boards in the form printed by BoardState.toString(),
+ * see BoardState.fromString()) or, if the name of the file ends with ".bin", as pairs of longs
+ * (the codes of the states, see BoardState.getCode(); such a position is restored in the colors
+ * of its code). Each line of the results file is the index of the position in the input file, the
+ * winner and the code of the position.
+ */
+public class BatchSolver {
+
+    private final static Logger logger = Logger.getLogger(BatchSolver.class);
+    private static final String RESULTS_SUFFIX = ".results";
+    // the results are written to the input file name + RESULTS_SUFFIX by default
+
+    /**
+     * Arguments: the file with the positions, then optionally "-threads N" (all the cores by
+     * default), "-out FILE" (the results file) and "-failfast" (see Main)
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            logger.error("Usage: BatchSolver POSITIONS_FILE [-threads N] [-out FILE] [-failfast]");
+            System.exit(-1);
+        }
+        String input = args[0];
+        String output = input + RESULTS_SUFFIX;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-threads"))
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-out"))
+                output = args[++i];
+            else if (args[i].equals("-failfast"))
+                StateClassifier.missingModelPolicy = StateClassifier.MissingModelPolicy.FAIL;
+        }
+        ArrayList<BoardState> positions = null;
+        try {
+            positions = readPositions(input);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Could not read the positions: " + e);
+            System.exit(-1);
+        }
+        StateClassifier.preloadModels(StateAnalyzer.getMinimaxEvaluationLevels());
+        solve(positions, output, threads);
+        SearchTracer.close();
+    }
+
+    /**
+     * Solve the positions and append the results to a file. The positions whose indices are
+     * already in the file are skipped
+     * @param positions
+     * @param output the results file
+     * @param threads number of positions to solve at the same time
+     */
+    public static void solve(ArrayList<BoardState> positions, String output, int threads) {
+        HashSet<Integer> solved = readSolved(output);
+        if (!solved.isEmpty())
+            logger.info(solved.size() + " positions are already solved. Resuming");
+        // the positions are solved in parallel, so a single position should not use multiple
+        // threads (with one thread, a position is split between threads as usual)
+        StateAnalyzer.multithreading = (threads == 1);
+
+        long timeStart = System.currentTimeMillis();
+        AtomicInteger done = new AtomicInteger();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(output, true))) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < positions.size(); i++) {
+                if (solved.contains(i))
+                    continue;
+                int index = i;
+                executor.execute(() -> {
+                    BoardState position = positions.get(index);
+                    Disk winner = new StateAnalyzer(new BoardState(position)).analyze();
+                    SearchTracer.flush();
+                    long[] code = position.getCode();
+                    synchronized (writer) {
+                        writer.println(index + " " + winner + " " + code[0] + " " + code[1]);
+                        writer.flush();
+                    }
+                    logger.info("Position " + index + " solved: " + winner + " (" +
+                            done.incrementAndGet() + " in this run)");
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            logger.error("Could not write to " + output);
+            System.exit(-1);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while solving the positions");
+            System.exit(-1);
+        }
+        long time = System.currentTimeMillis() - timeStart;
+        logger.info(done.get() + " positions solved in " + Main.getDuration(time) + " (" +
+                (done.get() * 1000.0 / Math.max(1, time)) + " positions per second)");
+    }
+
+    /**
+     * Read positions from a file (see the description of the class for the formats)
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ArrayList<BoardState> readPositions(String file) throws IOException {
+        ArrayList<BoardState> positions = new ArrayList<>();
+        if (file.endsWith(".bin")) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)))) {
+                while (true) {
+                    long[] code = new long[2];
+                    try {
+                        code[0] = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    code[1] = in.readLong();
+                    positions.add(BoardState.fromCode(code));
+                }
+            }
+            return positions;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            StringBuilder block = new StringBuilder(); // the lines of the current position
+            int rows = 0; // number of rows of the board in the block
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                boolean isRow = !line.isEmpty() && !line.contains(":");
+                if ((line.isEmpty() || (isRow && (rows == DIM))) && (rows > 0)) {
+                    // the previous position has ended
+                    positions.add(BoardState.fromString(block.toString()));
+                    block.setLength(0);
+                    rows = 0;
+                }
+                if (line.isEmpty())
+                    continue;
+                block.append(line).append('\n');
+                if (isRow)
+                    rows += 1;
+            }
+            if (rows > 0)
+                positions.add(BoardState.fromString(block.toString()));
+        }
+        return positions;
+    }
+
+    /**
+     * Get the indices of the positions that are already in the results file
+     * @param output
+     * @return
+     */
+    private static HashSet<Integer> readSolved(String output) {
+        HashSet<Integer> solved = new HashSet<>();
+        if (!new File(output).exists())
+            return solved;
+        try (BufferedReader reader = new BufferedReader(new FileReader(output))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.trim().split(" ");
+                if (values.length == 4) // the last line might be incomplete
+                    solved.add(Integer.parseInt(values[0]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Could not read " + output + ". All the positions will be solved");
+        }
+        return solved;
+    }
+}
@@ -30,11 +30,14 @@ public class BoardState implements Serializable {
             (x, y) -> new Coord(DIM - 1 - y, x)};
     // These lambda functions represent the four rotations and the four
     // reflections which can be applied to a BoardState. The functions are only
-    // used inside the static block and during the debug process.
+    // used inside the static block and during the debug process. They are also used (through
+    // ITERATORS) to find the symmetries of a board in getMoves()
     private static final Coord[][] ITERATORS;
     // 8 arrays of coordinates, which correspond to 8 transformations. ITERATIONS[0] is an array of
     // all possible coordinates arranged arbitrary. For all i > 0, ITERATORS[i][j] stores the
     // coordinates which one gets by applying TRANSFORMS[i] to ITERATORS[0][j]
+    private static final byte[] SWAPPED = {DARK.id, WHITE.id, NONE.id};
+    // the id of each disk after the colors are swapped (see getCode())
     private static final byte AVG_MOVES_POSSIBLE = 3; // average branching factor. Used for initial
     // capacity in the getMoves() method. Determined empirically
 
@@ -60,6 +63,8 @@ public class BoardState implements Serializable {
     // code is stored in a long array (see getCode()). BigInteger is too slow.
     // TODO: it might eventually make sense to make a separate class for that, but having a separate
     // class bight still be too slow. The code is initialized to null
+    private boolean colorSwapped = false; // whether the code was taken from the board with the
+    // colors swapped (see getCode()). Only valid once the code is calculated
 
     /**
      * Default constructor
@@ -94,17 +99,125 @@ public class BoardState implements Serializable {
     }
 
     /**
-     * Get the list of possible moves (boards)
+     * Restore a BoardState from its code (see getCode()). Since the code does not store which
+     * rotation or reflection it was taken from, the board is restored in the orientation that
+     * maximizes the code, i.e. the restored state is equal to, but not necessarily identical to,
+     * the one the code was taken from. Likewise, the colors are those of the code, which might be
+     * swapped with respect to the original state (see isColorSwapped())
+     * @param code
+     * @return
+     */
+    public static BoardState fromCode(long[] code) {
+        BoardState result = new BoardState();
+        result.scores = new byte[] {(byte) 0, (byte) 0};
+        for (int p = 0; p < code.length; p++) {
+            long value = code[p] / 3; // the last multiplication by 3 in getCode() is undone here
+            if (p == code.length - 1)
+                result.turn = (code[p] % 3 == DARK.id) ? DARK : WHITE;
+            // cells are encoded in the order of their indices, so they are decoded backwards
+            for (int i = MAX - 1; i >= 0; i--) {
+                if (i % 2 != p)
+                    continue;
+                byte disk = (byte) (value % 3);
+                value /= 3;
+                result.board[i / DIM][i % DIM] = disk;
+                if (disk != NONE.id)
+                    result.scores[disk] += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Restore a BoardState from its code in the colors of the state the code was taken from
+     * @param code
+     * @param colorSwapped the value of isColorSwapped() for that state
+     * @return
+     */
+    public static BoardState fromCode(long[] code, boolean colorSwapped) {
+        BoardState result = fromCode(code);
+        if (!colorSwapped)
+            return result;
+        for (byte[] row : result.board)
+            for (int j = 0; j < row.length; j++)
+                row[j] = SWAPPED[row[j]];
+        result.scores = new byte[] {result.scores[DARK.id], result.scores[WHITE.id]};
+        result.turn = getReverse(result.turn);
+        return result;
+    }
+
+    /**
+     * Restore a BoardState from its string representation (see toString()). The player to make a
+     * move is taken from the "Turn:" line followed by the name of the disk (e.g. "Turn: X"), if
+     * there is one. Otherwise, it is DARK. The "Code:" line is ignored: its turn is that of the
+     * code, which is the other player for a color-swapped state (see getCode())
+     * @param text
+     * @return
+     * @throws IllegalArgumentException if the text does not represent a board
+     */
+    public static BoardState fromString(String text) {
+        BoardState result = new BoardState();
+        result.scores = new byte[] {(byte) 0, (byte) 0};
+        result.turn = DARK;
+        int row = 0;
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (line.startsWith("Turn:"))
+                result.turn = line.endsWith(String.valueOf(WHITE.name)) ? WHITE : DARK;
+            else if (!line.isEmpty() && !line.startsWith("Code:")) {
+                if ((row == DIM) || (line.length() != DIM))
+                    throw new IllegalArgumentException("Not a board: " + text);
+                for (int j = 0; j < DIM; j++) {
+                    byte disk;
+                    if (line.charAt(j) == DARK.name)
+                        disk = DARK.id;
+                    else if (line.charAt(j) == WHITE.name)
+                        disk = WHITE.id;
+                    else if (line.charAt(j) == NONE.name)
+                        disk = NONE.id;
+                    else
+                        throw new IllegalArgumentException("Not a board: " + text);
+                    result.board[row][j] = disk;
+                    if (disk != NONE.id)
+                        result.scores[disk] += 1;
+                }
+                row += 1;
+            }
+        }
+        if (row != DIM)
+            throw new IllegalArgumentException("Not a board: " + text);
+        return result;
+    }
+
+    /**
+     * Get the list of possible moves (boards). Only one move out of each group of moves that are
+     * rotations or reflections of each other is returned (see getMoves(boolean, boolean))
      *
      * @param sort if True, sort the moves by the number of disks the current player will have
      *             after executing the move
      */
     public ArrayList<BoardState> getMoves(boolean sort) {
+        return getMoves(sort, true);
+    }
+
+    /**
+     * Get the list of possible moves (boards)
+     *
+     * @param sort if True, sort the moves by the number of disks the current player will have
+     *             after executing the move
+     * @param unique if True and the board is symmetric (i.e. some rotation or reflection maps it
+     *               onto itself), skip the moves that are rotations or reflections of the moves
+     *               already returned. Such moves lead to equal states
+     */
+    public ArrayList<BoardState> getMoves(boolean sort, boolean unique) {
         ArrayList<BoardState> moves = new ArrayList<>(AVG_MOVES_POSSIBLE);
+        byte[] symmetries = unique ? getSymmetries() : new byte[0];
         for (byte i = 0; i < board.length; i++)
             for (byte j = 0; j < board.length; j++) {
                 if (board[i][j] != NONE.id)
                     continue;
+                if ((symmetries.length > 0) && !isFirstInOrbit(i * DIM + j, symmetries))
+                    continue;
                 // the tile is not occupied but it is yet to be discovered,
                 // whether something can be placed here
                 BoardState trial = tryMove(i, j);
@@ -116,6 +229,43 @@ public class BoardState implements Serializable {
         return moves;
     }
 
+    /**
+     * Get the ids of the transformations (see TRANSFORMS) other than the identity that map the
+     * board onto itself
+     * @return
+     */
+    private byte[] getSymmetries() {
+        byte[] result = new byte[ITERATORS.length - 1];
+        byte count = 0;
+        for (byte k = 1; k < ITERATORS.length; k++) {
+            boolean symmetric = true;
+            for (int i = 0; (i < MAX) && symmetric; i++) {
+                Coord coord = ITERATORS[k][i];
+                symmetric = board[coord.r][coord.c] == board[i / DIM][i % DIM];
+            }
+            if (symmetric)
+                result[count++] = k;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Whether a tile has the smallest index among all the tiles it is mapped to by the given
+     * transformations. If the transformations map the board onto itself, the moves made on all
+     * these tiles lead to equal states
+     * @param index index of the tile (row * DIM + column)
+     * @param symmetries ids of transformations (see getSymmetries())
+     * @return
+     */
+    private static boolean isFirstInOrbit(int index, byte[] symmetries) {
+        for (byte k : symmetries) {
+            Coord coord = ITERATORS[k][index];
+            if (coord.r * DIM + coord.c < index)
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Attempt to place a disk at (row, column). If this is possible, create a
      * new object describing the changes made to the board. To understand this function it is
@@ -129,22 +279,7 @@ public class BoardState implements Serializable {
     private BoardState tryMove(byte r, byte c) {
         BoardState result = null;
         for (Coord dir : DIRS) { // for every possible direction
-            boolean disksToFlip = false; //there are disks of the opposite color to be flipped
-            boolean disksEnclosed = false; // the disks that are to be flipped are enclosed
-            // between the newly placed disk and some other disk of the same color
-            byte m = 1; // multiplier
-            while ((r + dir.r * m < DIM) && (r + dir.r * m >= 0) &&
-                    (c + dir.c * m < DIM) && (c + dir.c * m >= 0)) {
-                if (board[r + dir.r * m][c + dir.c * m] == turn.id) {
-                    disksEnclosed = true;
-                    break;
-                } else if (board[r + dir.r * m][c + dir.c * m] == NONE.id)
-                    break;
-                else
-                    disksToFlip = true;
-                m += 1;
-            }
-            if ((!disksEnclosed) || (!disksToFlip))
+            if (!encloses(r, c, dir))
                 continue;
 
             if (result == null) { // if the new BoardState was not created yet
@@ -154,7 +289,7 @@ public class BoardState implements Serializable {
                 result.reverseTurn();
             }
 
-            for (m = 1; board[r + dir.r * m][c + dir.c * m] != turn.id; m++) {// flipping disks
+            for (byte m = 1; board[r + dir.r * m][c + dir.c * m] != turn.id; m++) {// flipping disks
                 result.board[r + dir.r * m][c + dir.c * m] = turn.id;
                 result.scores[turn.id] += 1;
                 result.scores[1 - turn.id] -= 1;
@@ -163,6 +298,70 @@ public class BoardState implements Serializable {
         return result;
     }
 
+    /**
+     * Whether a disk placed at (row, column) would enclose some disks of the opposite color in a
+     * given direction (i.e. whether these disks would be flipped)
+     *
+     * @param r the row where the disk is to be placed
+     * @param c the column where the disk is to be placed
+     * @param dir
+     * @return
+     */
+    private boolean encloses(byte r, byte c, Coord dir) {
+        boolean disksToFlip = false; //there are disks of the opposite color to be flipped
+        byte m = 1; // multiplier
+        while ((r + dir.r * m < DIM) && (r + dir.r * m >= 0) &&
+                (c + dir.c * m < DIM) && (c + dir.c * m >= 0)) {
+            if (board[r + dir.r * m][c + dir.c * m] == turn.id)
+                return disksToFlip; // the disks to be flipped are enclosed
+            // between the newly placed disk and some other disk of the same color
+            else if (board[r + dir.r * m][c + dir.c * m] == NONE.id)
+                return false;
+            else
+                disksToFlip = true;
+            m += 1;
+        }
+        return false;
+    }
+
+    /**
+     * Get the tiles on which the current player can place a disk without creating the resulting
+     * states. A tile is represented by its index (row * DIM + column)
+     *
+     * @param unique see getMoves(boolean, boolean)
+     * @return
+     */
+    public byte[] getMoveTiles(boolean unique) {
+        byte[] tiles = new byte[MAX];
+        byte count = 0;
+        byte[] symmetries = unique ? getSymmetries() : new byte[0];
+        for (byte i = 0; i < board.length; i++)
+            for (byte j = 0; j < board.length; j++) {
+                if (board[i][j] != NONE.id)
+                    continue;
+                if ((symmetries.length > 0) && !isFirstInOrbit(i * DIM + j, symmetries))
+                    continue;
+                for (Coord dir : DIRS)
+                    if (encloses(i, j, dir)) {
+                        tiles[count++] = (byte) (i * DIM + j);
+                        break;
+                    }
+            }
+        return Arrays.copyOf(tiles, count);
+    }
+
+    /**
+     * Get the state that results from placing a disk on a given tile
+     *
+     * @param tile index of the tile (row * DIM + column), as returned by getMoveTiles()
+     * @return the new state or null, if the move is not possible
+     */
+    public BoardState makeMove(byte tile) {
+        if (board[tile / DIM][tile % DIM] != NONE.id)
+            return null;
+        return tryMove((byte) (tile / DIM), (byte) (tile % DIM));
+    }
+
     /**
      * Get a string representation of the state
      * X corresponds to dark disks
@@ -173,21 +372,22 @@ public class BoardState implements Serializable {
      * @return
      */
     private String toString(Transformation transform) {
-        String result = "";
+        StringBuilder result = new StringBuilder((DIM + 1) * DIM + 64);
         Coord coord;
         for (byte i = 0; i < board.length; i++) {
             for (byte j = 0; j < board[i].length; j++) {
                 coord = transform.transform(i, j);
                 if (board[coord.r][coord.c] == DARK.id)
-                    result += DARK.name;
+                    result.append(DARK.name);
                 else if (board[coord.r][coord.c] == WHITE.id)
-                    result += WHITE.name;
+                    result.append(WHITE.name);
                 else
-                    result += NONE.name;
+                    result.append(NONE.name);
             }
-            result += "\n";
+            result.append('\n');
         }
-        return result + "Code: " + Arrays.toString((getCode())) + "\n";
+        result.append("Turn: ").append(turn.name).append('\n');
+        return result.append("Code: ").append(Arrays.toString(getCode())).append('\n').toString();
     }
 
     /**
@@ -265,8 +465,14 @@ public class BoardState implements Serializable {
     /**
      * Get the "code" of the board. The code is such that each reflection or
      * rotation of the same board (but not any other board) has the same code.
-     * Note that boards that are one "color flip" from each other will yield
-     * different codes.
+     * A board with the colors of all the disks swapped and the other player to
+     * make a move (the color-swapped twin) has the same code as well, since the
+     * player to make a move wins in one of them if and only if the player to
+     * make a move wins in the other. Of the two, the code is taken from the one
+     * in which the player to make a move is the one who would make it if nobody
+     * had passed (DARK on even levels). Since the board is only swapped after a
+     * pass, this costs nothing for most boards. Whether the code was taken from
+     * the twin is given by isColorSwapped().
      * The function loops through all the elements of the board in a specific
      * order and chooses a transformation (a rotation or a reflection) that
      * would correspond to the greatest code. Each two bits in the code are 00,
@@ -278,12 +484,13 @@ public class BoardState implements Serializable {
     public long[] getCode() {
         if (code != null)
             return code;
+        boolean swapped = (turn == DARK) != (getLevel() % 2 == 0);
         ArrayList<Byte> its = new ArrayList<>(); // iterators' ids
         ArrayList<Byte> old_its; // the copy of old iterators' ids
         for (byte i = 0; i < ITERATORS.length; i++)
             its.add(i);
         // filling the ids arrays. Initially, no iterator sequence maximizes the code
-        code = new long[2]; // this function must work with DIM = 8.
+        long[] result = new long[2]; // this function must work with DIM = 8.
         // Thus, the code can have 3^(8^2) * 2 (2 is for the turn variable) values. On practice, I
         // use two longs (128 bits)
         for (int i = 0; i < MAX; i++) {
@@ -291,19 +498,47 @@ public class BoardState implements Serializable {
             old_its = its;
             for (byte j = 0; j < old_its.size(); j++) {
                 Coord coords = ITERATORS[old_its.get(j)][i];
-                if (board[coords.r][coords.c] > max) {
-                    max = board[coords.r][coords.c];
+                byte value = swapped ? SWAPPED[board[coords.r][coords.c]] :
+                        board[coords.r][coords.c];
+                if (value > max) {
+                    max = value;
                     its = new ArrayList<>(1);
                 }
-                if (board[coords.r][coords.c] == max)
+                if (value == max)
                     its.add(old_its.get(j));
             }
-            code[i % 2] = (code[i % 2] + max) * 3;
+            result[i % 2] = (result[i % 2] + max) * 3;
         }
-        code[code.length - 1] += turn.id;
+        result[result.length - 1] += (swapped ? getReverse(turn) : turn).id;
+        colorSwapped = swapped;
+        code = result;
         return code;
     }
 
+    /**
+     * Whether the code of the state (see getCode()) was taken from its color-swapped twin. If so,
+     * the state restored from the code (see fromCode()) is the twin, and a winner recorded for the
+     * code has to be translated with translateColor()
+     * @return
+     */
+    public boolean isColorSwapped() {
+        getCode();
+        return colorSwapped;
+    }
+
+    /**
+     * Translate a disk (e.g. a winner) between the colors of this state and the colors of its code.
+     * The translation is its own inverse
+     * @param disk
+     * @return the disk with the color reversed, if the code was taken from the color-swapped twin
+     * (see isColorSwapped()), and the disk itself otherwise (null for null)
+     */
+    public Disk translateColor(Disk disk) {
+        if ((disk == null) || !isColorSwapped())
+            return disk;
+        return getReverse(disk);
+    }
+
     /**
      * A class representing a coordinate (pair of ints)
      */
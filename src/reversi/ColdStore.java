@@ -0,0 +1,434 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import static reversi.BoardState.*;
+import static reversi.Disk.*;
+
+/**
+ * The on-disk tier of the dictionary of solved states. When StateAnalyzer runs out of memory, it
+ * releases a whole level of coincDict (see StateAnalyzer.reduceDict()). Instead of being forgotten,
+ * the states of the level are spilled here, so that they do not have to be solved again if they
+ * come up later.
+ *
+ * Each level is stored in a single segment file: the records (the code of a state, see
+ * BoardState.getCode(), and the winner in the colors of the code) sorted by code. Segments are
+ * never modified. When more states of a level are spilled, they are merged with the old segment
+ * into a new one, which then replaces it (so duplicates are removed and a lookup reads only one
+ * file). For every segment, the codes of every INDEX_INTERVAL-th record (a sparse index) and a
+ * Bloom filter are kept in memory. A state that is not in the segment is almost always rejected by
+ * the Bloom filter without reading the disk, and a state that is there is found with a single
+ * read of INDEX_INTERVAL records.
+ *
+ * The segments stay on the disk after the program terminates and are used by the next runs.
+ */
+public class ColdStore {
+
+    private final static Logger logger = Logger.getLogger(ColdStore.class);
+    private static final int MAGIC = 0x52434f32; // "RCO2"
+    // (the segments of "RCOL" were written before the codes folded color-swapped twins together)
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 8; // MAGIC, DIM, level, number of records
+    private static final int RECORD_SIZE = 8 + 8 + 1; // the code and the id of the winner
+    private static final int INDEX_INTERVAL = 64;
+    // a code of every INDEX_INTERVAL-th record is kept in memory
+    private static final int BLOOM_BITS = 10; // size of the Bloom filter per record (in bits)
+    private static final int BLOOM_HASHES = 7;
+    // number of hash functions of the Bloom filter. With BLOOM_BITS = 10, about 1% of the states
+    // that are not in the segment pass the filter
+
+    private final File dir; // directory with the segments
+    private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(MAX);
+    // the segment of each level (level i at index i - 1) or null, if nothing was spilled
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder filtered = new LongAdder(); // lookups rejected by the Bloom filters
+    private final LongAdder reads = new LongAdder(); // lookups that had to read the disk
+
+    /**
+     * Default constructor. The segments left by the previous runs are opened
+     * @param dir directory in which to store the segments
+     */
+    public ColdStore(String dir) {
+        this.dir = new File(dir);
+        for (int level = 1; level <= MAX; level++) {
+            File file = getFile(level);
+            if (!file.exists())
+                continue;
+            try {
+                segments.set(level - 1, new Segment(file, level));
+                logger.info("Opened " + segments.get(level - 1).count + " solved states of level " +
+                        level + " in " + file);
+            } catch (IOException e) {
+                logger.warn("Could not open " + file + ": " + e.getMessage() + ". Ignoring it");
+            }
+        }
+    }
+
+    /**
+     * Get the winner of a state
+     * @param state
+     * @return the winner or null, if the state is not stored (or could not be read)
+     */
+    public Disk get(BoardState state) {
+        Segment segment = segments.get(state.getLevel() - 1);
+        if (segment == null)
+            return null;
+        long[] code = state.getCode();
+        if (!segment.mightContain(code)) {
+            filtered.increment();
+            return null;
+        }
+        reads.increment();
+        try {
+            Disk winner = segment.get(code);
+            if (winner != null)
+                hits.increment();
+            return winner;
+        } catch (IOException e) {
+            // the segment might have just been replaced by a larger one. Treated as a miss
+            return null;
+        }
+    }
+
+    /**
+     * Store the winners of the states of a level. The states are merged with the ones already
+     * stored for this level
+     * @param level
+     * @param states the states of the level and their winners
+     */
+    public synchronized void spill(int level, Map<BoardState, Disk> states) {
+        long timeStart = System.currentTimeMillis();
+        // this happens when the memory is exhausted, so the records are kept in flat arrays rather
+        // than as an object per state
+        long[] codes = new long[states.size() * 2];
+        byte[] winners = new byte[states.size()];
+        int size = 0;
+        for (Map.Entry<BoardState, Disk> entry : states.entrySet()) {
+            if (size == winners.length)
+                break;
+            long[] code = entry.getKey().getCode();
+            codes[2 * size] = code[0];
+            codes[2 * size + 1] = code[1];
+            winners[size++] = entry.getValue().id;
+        }
+        sort(codes, winners, size);
+        if (!dir.exists() && !dir.mkdirs()) {
+            logger.warn("Could not create " + dir + ". The states of level " + level +
+                    " are not spilled");
+            return;
+        }
+        Segment old = segments.get(level - 1);
+        File file = getFile(level);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try {
+            write(tmp, level, codes, winners, size, old);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            segments.set(level - 1, new Segment(file, level));
+        } catch (IOException e) {
+            logger.warn("Could not spill the states of level " + level + ": " + e);
+            tmp.delete();
+            return;
+        }
+        if (old != null)
+            old.close();
+        logger.info("Spilled " + size + " states of level " + level + " to " + file +
+                " (" + segments.get(level - 1).count + " in total) in " +
+                Main.getDuration(System.currentTimeMillis() - timeStart));
+    }
+
+    /**
+     * Get a report about the lookups
+     * @return
+     */
+    public String getReport() {
+        return hits.sum() + " hits in " + reads.sum() + " disk reads, " + filtered.sum() +
+                " lookups rejected by the Bloom filters";
+    }
+
+    /**
+     * Write a segment that contains both the new records and the records of an old segment
+     * @param file
+     * @param level
+     * @param codes the codes of the new records (two longs each), sorted
+     * @param winners the ids of the winners of the new records
+     * @param size number of new records
+     * @param old the old segment of the level or null
+     * @throws IOException
+     */
+    private static void write(File file, int level, long[] codes, byte[] winners, int size,
+                              Segment old) throws IOException {
+        long count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeByte(DIM);
+            out.writeByte(level);
+            out.writeLong(0); // the number of records is written at the end
+            DataInputStream in = (old == null) ? null : old.openInput();
+            try {
+                long oldLeft = (old == null) ? 0 : old.count; // records left in the old segment
+                long[] oldRecord = (oldLeft == 0) ? null : readRecord(in);
+                long[] record = new long[3]; // the next new record
+                long[] last = new long[2]; // the code written last (used to skip duplicates)
+                boolean written = false; // whether any record was written
+                int i = 0;
+                while ((oldRecord != null) || (i < size)) {
+                    if (i < size) {
+                        record[0] = codes[2 * i];
+                        record[1] = codes[2 * i + 1];
+                        record[2] = winners[i];
+                    }
+                    long[] next;
+                    if ((oldRecord != null) && ((i == size) || (compare(oldRecord, record) <= 0))) {
+                        next = oldRecord;
+                        oldLeft -= 1;
+                        oldRecord = (oldLeft == 0) ? null : readRecord(in);
+                    } else {
+                        next = record;
+                        i++;
+                    }
+                    if (written && (compare(last, next) == 0))
+                        continue;
+                    out.writeLong(next[0]);
+                    out.writeLong(next[1]);
+                    out.writeByte((int) next[2]);
+                    last[0] = next[0];
+                    last[1] = next[1];
+                    written = true;
+                    count += 1;
+                }
+            } finally {
+                if (in != null)
+                    in.close();
+            }
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(HEADER_SIZE - 8);
+            out.writeLong(count);
+        }
+    }
+
+    /**
+     * Read a record of a segment
+     * @param in
+     * @return {code[0], code[1], id of the winner}
+     * @throws IOException
+     */
+    private static long[] readRecord(DataInputStream in) throws IOException {
+        return new long[] {in.readLong(), in.readLong(), in.readByte()};
+    }
+
+    /**
+     * Sort records kept in flat arrays by their codes (heapsort, so that no memory is allocated)
+     * @param codes two longs per record
+     * @param winners one byte per record
+     * @param size number of records
+     */
+    private static void sort(long[] codes, byte[] winners, int size) {
+        for (int i = size / 2 - 1; i >= 0; i--)
+            siftDown(codes, winners, i, size);
+        for (int end = size - 1; end > 0; end--) {
+            swap(codes, winners, 0, end);
+            siftDown(codes, winners, 0, end);
+        }
+    }
+
+    /**
+     * Move a record down the heap formed by the first records until it is not smaller than its
+     * children
+     * @param codes
+     * @param winners
+     * @param i the index of the record
+     * @param size number of records in the heap
+     */
+    private static void siftDown(long[] codes, byte[] winners, int i, int size) {
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if ((child + 1 < size) && (compare(codes, child + 1, child) > 0))
+                child += 1;
+            if (compare(codes, i, child) >= 0)
+                return;
+            swap(codes, winners, i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Compare the codes of two records kept in a flat array
+     * @param codes
+     * @param i
+     * @param j
+     * @return
+     */
+    private static int compare(long[] codes, int i, int j) {
+        if (codes[2 * i] != codes[2 * j])
+            return Long.compare(codes[2 * i], codes[2 * j]);
+        return Long.compare(codes[2 * i + 1], codes[2 * j + 1]);
+    }
+
+    private static void swap(long[] codes, byte[] winners, int i, int j) {
+        for (int k = 0; k < 2; k++) {
+            long code = codes[2 * i + k];
+            codes[2 * i + k] = codes[2 * j + k];
+            codes[2 * j + k] = code;
+        }
+        byte winner = winners[i];
+        winners[i] = winners[j];
+        winners[j] = winner;
+    }
+
+    /**
+     * Compare two records by their codes
+     * @param x
+     * @param y
+     * @return
+     */
+    private static int compare(long[] x, long[] y) {
+        if (x[0] != y[0])
+            return Long.compare(x[0], y[0]);
+        return Long.compare(x[1], y[1]);
+    }
+
+    private File getFile(int level) {
+        return new File(dir, "level_" + level + ".seg");
+    }
+
+    /**
+     * A segment file together with its sparse index and Bloom filter
+     */
+    private static class Segment {
+
+        final File file;
+        final long count; // number of records
+        private final FileChannel channel; // used for positional reads from multiple threads
+        private final long[] index; // codes of every INDEX_INTERVAL-th record (two longs each)
+        private final long[] bloom; // bits of the Bloom filter
+
+        /**
+         * Open a segment and build its index and Bloom filter
+         * @param file
+         * @param level the level the segment has to be of
+         * @throws IOException if the file is not a segment of this level
+         */
+        Segment(File file, int level) throws IOException {
+            this.file = file;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 1 << 16))) {
+                if ((in.readInt() != MAGIC) || (in.readByte() != DIM) || (in.readByte() != level))
+                    throw new IOException("Not a segment of level " + level);
+                count = in.readLong();
+                if (file.length() != HEADER_SIZE + count * RECORD_SIZE)
+                    throw new IOException("The segment is truncated");
+                index = new long[(int) ((count + INDEX_INTERVAL - 1) / INDEX_INTERVAL) * 2];
+                bloom = new long[(int) Math.max(1, count * BLOOM_BITS / 64 + 1)];
+                for (long i = 0; i < count; i++) {
+                    long[] record = readRecord(in);
+                    if (i % INDEX_INTERVAL == 0) {
+                        index[(int) (i / INDEX_INTERVAL) * 2] = record[0];
+                        index[(int) (i / INDEX_INTERVAL) * 2 + 1] = record[1];
+                    }
+                    for (int k = 0; k < BLOOM_HASHES; k++) {
+                        long bit = getBit(record, k);
+                        bloom[(int) (bit >>> 6)] |= 1L << bit;
+                    }
+                }
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        /**
+         * Whether the segment might contain a code (according to the Bloom filter)
+         * @param code
+         * @return
+         */
+        boolean mightContain(long[] code) {
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                long bit = getBit(code, k);
+                if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Find the winner of a state with a given code
+         * @param code
+         * @return the winner or null, if the code is not in the segment
+         * @throws IOException
+         */
+        Disk get(long[] code) throws IOException {
+            // the last block that starts with a code that is not greater than the given one
+            int low = 0;
+            int high = index.length / 2 - 1;
+            while (low < high) {
+                int middle = (low + high + 1) / 2;
+                if (compare(new long[] {index[2 * middle], index[2 * middle + 1]}, code) <= 0)
+                    low = middle;
+                else
+                    high = middle - 1;
+            }
+            long first = (long) low * INDEX_INTERVAL; // the first record of the block
+            int records = (int) Math.min(INDEX_INTERVAL, count - first);
+            ByteBuffer block = ByteBuffer.allocate(records * RECORD_SIZE);
+            long position = HEADER_SIZE + first * RECORD_SIZE;
+            while (block.hasRemaining())
+                if (channel.read(block, position + block.position()) == -1)
+                    throw new EOFException();
+            for (int i = 0; i < records; i++) {
+                int offset = i * RECORD_SIZE;
+                if ((block.getLong(offset) == code[0]) && (block.getLong(offset + 8) == code[1])) {
+                    byte id = block.get(offset + 16);
+                    return (id == WHITE.id) ? WHITE : ((id == DARK.id) ? DARK : NONE);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Open the segment for reading the records sequentially (the header is skipped)
+         * @return
+         * @throws IOException
+         */
+        DataInputStream openInput() throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 1 << 16));
+            in.skipBytes(HEADER_SIZE);
+            return in;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Could not close " + file);
+            }
+        }
+
+        /**
+         * Get the bit of the Bloom filter that corresponds to a code for a given hash function
+         * @param code
+         * @param k the id of the hash function
+         * @return
+         */
+        private long getBit(long[] code, int k) {
+            long h1 = mix(code[0] * 0x9E3779B97F4A7C15L ^ code[1]);
+            long h2 = mix(code[1] * 0xC2B2AE3D27D4EB4FL ^ code[0]) | 1;
+            return Math.floorMod(h1 + k * h2, (long) bloom.length * 64);
+        }
+
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            return hash ^ (hash >>> 33);
+        }
+    }
+}
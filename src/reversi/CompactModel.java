@@ -0,0 +1,371 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+import weka.classifiers.functions.MultilayerPerceptron;
+import weka.classifiers.functions.neural.*;
+import weka.core.SerializationHelper;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import static reversi.BoardState.*;
+
+/**
+ * A feed-forward neural network stored as plain arrays of weights. It computes the same function
+ * as the Weka MultilayerPerceptron it was exported from, but it loads in milliseconds (the file
+ * only contains the weights) and can be evaluated by multiple threads at the same time.
+ *
+ * File format (all values are written with DataOutputStream): MAGIC, number of inputs, the
+ * normalization of the inputs (a base and a range for each input), the normalization of the
+ * output (a base and a range), number of layers, and for each layer: number of units, number of
+ * inputs, activation (LINEAR or SIGMOID) and the weights of every unit (the bias first).
+ */
+public class CompactModel {
+
+    private final static Logger logger = Logger.getLogger(CompactModel.class);
+    private static final int MAGIC = 0x52564D31; // identifies the format of the file
+    public static final byte LINEAR = 0; // activation of a layer: the weighted sum itself
+    public static final byte SIGMOID = 1; // activation of a layer: 1 / (1 + exp(-sum))
+
+    final double[] inputBases; // a normalized input is (input - inputBase) / inputRange
+    final double[] inputRanges;
+    final double outputBase; // the output is (output of the last layer) * outputRange + outputBase
+    final double outputRange;
+    final float[][][] weights; // weights[layer][unit][input + 1]. The bias of a unit comes first
+    final byte[] activations; // activation of each layer
+
+    /**
+     * Default constructor
+     */
+    public CompactModel(double[] inputBases, double[] inputRanges, double outputBase,
+                        double outputRange, float[][][] weights, byte[] activations) {
+        this.inputBases = inputBases;
+        this.inputRanges = inputRanges;
+        this.outputBase = outputBase;
+        this.outputRange = outputRange;
+        this.weights = weights;
+        this.activations = activations;
+    }
+
+    /**
+     * Convert the Weka models of the given levels (all levels, if none are given) to the compact
+     * format
+     * @param args
+     */
+    public static void main(String[] args) {
+        for (int level = 1; level <= MAX; level++) {
+            if ((args.length > 0) && !Arrays.asList(args).contains(String.valueOf(level)))
+                continue;
+            if (!new File(StateClassifier.getModelFile(level, false)).exists())
+                continue;
+            try {
+                MultilayerPerceptron perceptron = (MultilayerPerceptron) SerializationHelper.read(
+                        StateClassifier.getModelFile(level, false));
+                fromWeka(perceptron).write(StateClassifier.getModelFile(level, true));
+                logger.info("Model for level " + level + " converted");
+            } catch (Exception e) {
+                logger.error("Could not convert the model for level " + level + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Calculate the output of the network
+     * @param inputs
+     * @return
+     */
+    public double evaluate(double[] inputs) {
+        double[] values = new double[inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+            values[i] = (inputs[i] - inputBases[i]) / inputRanges[i];
+        for (int layer = 0; layer < weights.length; layer++)
+            values = evaluateLayer(layer, values);
+        return values[0] * outputRange + outputBase;
+    }
+
+    /**
+     * Calculate the outputs of one layer given its inputs
+     * @param layer
+     * @param inputs
+     * @return
+     */
+    double[] evaluateLayer(int layer, double[] inputs) {
+        float[][] layerWeights = weights[layer];
+        double[] outputs = new double[layerWeights.length];
+        for (int unit = 0; unit < layerWeights.length; unit++) {
+            float[] unitWeights = layerWeights[unit];
+            double sum = unitWeights[0];
+            for (int i = 0; i < inputs.length; i++)
+                sum += unitWeights[i + 1] * inputs[i];
+            outputs[unit] = activate(sum, activations[layer]);
+        }
+        return outputs;
+    }
+
+    /**
+     * Apply an activation function. The sigmoid is cut off at +-45 the same way Weka does it
+     * @param sum
+     * @param activation
+     * @return
+     */
+    static double activate(double sum, byte activation) {
+        if (activation == LINEAR)
+            return sum;
+        if (sum < -45)
+            return 0;
+        if (sum > 45)
+            return 1;
+        return 1 / (1 + Math.exp(-sum));
+    }
+
+    /**
+     * Save the model to a file
+     * @param filename
+     * @throws IOException
+     */
+    public void write(String filename) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(filename)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(inputBases.length);
+            for (int i = 0; i < inputBases.length; i++) {
+                out.writeDouble(inputBases[i]);
+                out.writeDouble(inputRanges[i]);
+            }
+            out.writeDouble(outputBase);
+            out.writeDouble(outputRange);
+            out.writeInt(weights.length);
+            for (int layer = 0; layer < weights.length; layer++) {
+                out.writeInt(weights[layer].length);
+                out.writeInt(weights[layer][0].length - 1);
+                out.writeByte(activations[layer]);
+                for (float[] unitWeights : weights[layer])
+                    for (float weight : unitWeights)
+                        out.writeFloat(weight);
+            }
+        }
+    }
+
+    /**
+     * Load a model from a file
+     * @param filename
+     * @return
+     * @throws IOException
+     */
+    public static CompactModel read(String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(filename)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(filename + " is not a compact model");
+            int inputs = in.readInt();
+            double[] inputBases = new double[inputs];
+            double[] inputRanges = new double[inputs];
+            for (int i = 0; i < inputs; i++) {
+                inputBases[i] = in.readDouble();
+                inputRanges[i] = in.readDouble();
+            }
+            double outputBase = in.readDouble();
+            double outputRange = in.readDouble();
+            int layers = in.readInt();
+            float[][][] weights = new float[layers][][];
+            byte[] activations = new byte[layers];
+            for (int layer = 0; layer < layers; layer++) {
+                int units = in.readInt();
+                int layerInputs = in.readInt();
+                activations[layer] = in.readByte();
+                weights[layer] = new float[units][layerInputs + 1];
+                for (float[] unitWeights : weights[layer])
+                    for (int i = 0; i < unitWeights.length; i++)
+                        unitWeights[i] = in.readFloat();
+            }
+            return new CompactModel(inputBases, inputRanges, outputBase, outputRange, weights,
+                    activations);
+        }
+    }
+
+    /**
+     * Extract the weights of a trained Weka MultilayerPerceptron with a numeric class. Weka does
+     * not expose the structure of the network, so the private fields holding it are read through
+     * reflection. Every unit (NeuralNode) is assigned to a layer by its distance from the inputs
+     * @param perceptron
+     * @return
+     * @throws ReflectiveOperationException if the structure of the network cannot be read
+     */
+    public static CompactModel fromWeka(MultilayerPerceptron perceptron)
+            throws ReflectiveOperationException {
+        NeuralConnection[] inputEnds = (NeuralConnection[]) getField(perceptron, "m_inputs");
+        double[][] normalization = getWekaNormalization(perceptron);
+        IdentityHashMap<NeuralConnection, Integer> indices = getInputIndices(inputEnds);
+        ArrayList<ArrayList<NeuralNode>> layers = getWekaLayers(perceptron);
+
+        float[][][] weights = new float[layers.size()][][];
+        byte[] activations = new byte[layers.size()];
+        for (int l = 0; l < layers.size(); l++) {
+            ArrayList<NeuralNode> units = layers.get(l);
+            int inputs = (l == 0) ? inputEnds.length : layers.get(l - 1).size();
+            weights[l] = new float[units.size()][inputs + 1];
+            activations[l] = (units.get(0).getMethod() instanceof SigmoidUnit) ? SIGMOID : LINEAR;
+            for (int u = 0; u < units.size(); u++) {
+                NeuralNode unit = units.get(u);
+                double[] unitWeights = unit.getWeights();
+                weights[l][u][0] = (float) unitWeights[0];
+                NeuralConnection[] unitInputs = unit.getInputs();
+                for (int i = 0; i < unit.getNumInputs(); i++)
+                    weights[l][u][indices.get(unitInputs[i]) + 1] = (float) unitWeights[i + 1];
+            }
+            for (int u = 0; u < units.size(); u++)
+                indices.put(units.get(u), u);
+        }
+
+        return new CompactModel(normalization[0], normalization[1], normalization[2][0],
+                normalization[2][1], weights, activations);
+    }
+
+    /**
+     * Copy the weights of this model into a Weka MultilayerPerceptron of the same shape (e.g. one
+     * built by ParallelTrainer.toWeka()), so that it can be saved as a Weka model. The
+     * normalization that Weka has chosen for the perceptron may differ from the one of this
+     * model, in which case the weights of the first and the last layers are adjusted accordingly
+     * @param perceptron
+     * @throws ReflectiveOperationException if the structure of the network cannot be read or if
+     * it differs from the structure of this model
+     */
+    public void copyToWeka(MultilayerPerceptron perceptron) throws ReflectiveOperationException {
+        NeuralConnection[] inputEnds = (NeuralConnection[]) getField(perceptron, "m_inputs");
+        double[][] normalization = getWekaNormalization(perceptron);
+        IdentityHashMap<NeuralConnection, Integer> indices = getInputIndices(inputEnds);
+        ArrayList<ArrayList<NeuralNode>> layers = getWekaLayers(perceptron);
+        if ((inputEnds.length != inputBases.length) || (layers.size() != weights.length))
+            throw new ReflectiveOperationException("The shape of the network differs");
+
+        for (int l = 0; l < layers.size(); l++) {
+            ArrayList<NeuralNode> units = layers.get(l);
+            if (units.size() != weights[l].length)
+                throw new ReflectiveOperationException("The shape of the network differs");
+            for (int u = 0; u < units.size(); u++) {
+                NeuralNode unit = units.get(u);
+                double[] unitWeights = unit.getWeights();
+                NeuralConnection[] unitInputs = unit.getInputs();
+                unitWeights[0] = weights[l][u][0];
+                for (int i = 0; i < unit.getNumInputs(); i++) {
+                    int input = indices.get(unitInputs[i]);
+                    double weight = weights[l][u][input + 1];
+                    if (l == 0) { // (x - base) / range expressed through Weka's normalization
+                        unitWeights[0] += weight *
+                                (normalization[0][input] - inputBases[input]) / inputRanges[input];
+                        weight *= normalization[1][input] / inputRanges[input];
+                    }
+                    unitWeights[i + 1] = weight;
+                }
+                if (l == layers.size() - 1) { // output * range + base with Weka's normalization
+                    for (int i = 0; i < unitWeights.length; i++)
+                        unitWeights[i] *= outputRange / normalization[2][1];
+                    unitWeights[0] += (outputBase - normalization[2][0]) / normalization[2][1];
+                }
+            }
+            for (int u = 0; u < units.size(); u++)
+                indices.put(units.get(u), u);
+        }
+    }
+
+    /**
+     * Get the normalization that a Weka MultilayerPerceptron applies to its inputs and output
+     * @param perceptron
+     * @return {input bases, input ranges, {output base, output range}}
+     * @throws ReflectiveOperationException
+     */
+    private static double[][] getWekaNormalization(MultilayerPerceptron perceptron)
+            throws ReflectiveOperationException {
+        NeuralConnection[] inputEnds = (NeuralConnection[]) getField(perceptron, "m_inputs");
+        double[] ranges = (double[]) getField(perceptron, "m_attributeRanges");
+        double[] bases = (double[]) getField(perceptron, "m_attributeBases");
+        boolean normalizeAttributes = (Boolean) getField(perceptron, "m_normalizeAttributes");
+        boolean normalizeClass = (Boolean) getField(perceptron, "m_normalizeClass");
+        double[] inputBases = new double[inputEnds.length];
+        double[] inputRanges = new double[inputEnds.length];
+        for (NeuralConnection end : inputEnds) {
+            int link = getLink(end);
+            inputBases[link] = normalizeAttributes ? bases[link] : 0;
+            inputRanges[link] = (normalizeAttributes && (ranges[link] != 0)) ? ranges[link] : 1;
+        }
+        int classIndex = inputEnds.length; // the class is the last attribute
+        return new double[][] {inputBases, inputRanges, {normalizeClass ? bases[classIndex] : 0,
+                normalizeClass ? ranges[classIndex] : 1}};
+    }
+
+    /**
+     * Map the input ends of a Weka network to the indices of the attributes they are linked to
+     * @param inputEnds
+     * @return
+     * @throws ReflectiveOperationException
+     */
+    private static IdentityHashMap<NeuralConnection, Integer> getInputIndices(
+            NeuralConnection[] inputEnds) throws ReflectiveOperationException {
+        IdentityHashMap<NeuralConnection, Integer> indices = new IdentityHashMap<>();
+        for (NeuralConnection end : inputEnds)
+            indices.put(end, getLink(end));
+        return indices;
+    }
+
+    /**
+     * Get the index of the attribute an input end of a Weka network is linked to. The ends
+     * (MultilayerPerceptron.NeuralEnd) are not accessible, so the field is read through reflection
+     * @param end
+     * @return
+     * @throws ReflectiveOperationException
+     */
+    private static int getLink(NeuralConnection end) throws ReflectiveOperationException {
+        Field field = end.getClass().getDeclaredField("m_link");
+        field.setAccessible(true);
+        return field.getInt(end);
+    }
+
+    /**
+     * Split the units of a Weka network into layers, starting from the output
+     * @param perceptron
+     * @return the layers, the first hidden layer first
+     * @throws ReflectiveOperationException if the network does not have exactly one output
+     */
+    private static ArrayList<ArrayList<NeuralNode>> getWekaLayers(MultilayerPerceptron perceptron)
+            throws ReflectiveOperationException {
+        NeuralConnection[] outputEnds = (NeuralConnection[]) getField(perceptron, "m_outputs");
+        if (outputEnds.length != 1)
+            throw new ReflectiveOperationException("Only networks with one output are supported");
+        ArrayList<ArrayList<NeuralNode>> layers = new ArrayList<>();
+        IdentityHashMap<NeuralConnection, Boolean> seen = new IdentityHashMap<>();
+        ArrayList<NeuralNode> layer = new ArrayList<>();
+        // the arrays of inputs are padded with nulls past getNumInputs()
+        NeuralConnection[] outputInputs = outputEnds[0].getInputs();
+        for (int i = 0; i < outputEnds[0].getNumInputs(); i++)
+            layer.add((NeuralNode) outputInputs[i]);
+        while (!layer.isEmpty()) {
+            layers.add(0, layer);
+            ArrayList<NeuralNode> previous = new ArrayList<>();
+            for (NeuralNode unit : layer) {
+                NeuralConnection[] unitInputs = unit.getInputs();
+                for (int i = 0; i < unit.getNumInputs(); i++)
+                    if ((unitInputs[i] instanceof NeuralNode) &&
+                            (seen.put(unitInputs[i], true) == null))
+                        previous.add((NeuralNode) unitInputs[i]);
+            }
+            layer = previous;
+        }
+        return layers;
+    }
+
+    /**
+     * Read a private field of a MultilayerPerceptron
+     * @param perceptron
+     * @param name
+     * @return
+     * @throws ReflectiveOperationException
+     */
+    static Object getField(MultilayerPerceptron perceptron, String name)
+            throws ReflectiveOperationException {
+        Field field = MultilayerPerceptron.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(perceptron);
+    }
+}
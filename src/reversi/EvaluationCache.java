@@ -0,0 +1,140 @@
+package reversi;
+
+import java.util.concurrent.atomic.LongAdder;
+import static reversi.BoardState.*;
+
+/**
+ * A fixed-size cache of the scores that the classifiers assign to the leaves of minimax (see
+ * StateAnalyzer.minimax()). There is a separate cache for each level. States are identified by
+ * their codes (see BoardState.getCode()), so a state is found in the cache even if it was stored
+ * as one of its rotations or reflections.
+ *
+ * The cache is shared by all the threads, but it uses no locks. Each entry is written as three
+ * separate longs, and the second one is XORed with the other two. If two threads write the same
+ * entry at the same time, the mix of their writes fails this check on reading and is treated as a
+ * miss. The entries are grouped into buckets of BUCKET_SIZE. When a bucket is full, an entry is
+ * evicted with the CLOCK policy: entries that were read since the last time they were passed
+ * over get a second chance.
+ */
+public class EvaluationCache {
+
+    private static final int CACHE_SIZE = 1 << 18; // number of entries per level (a power of 2)
+    private static final int BUCKET_SIZE = 4; // number of entries among which to choose the victim
+    private static final int ENTRY_WIDTH = 3; // number of longs in an entry
+    private static final long EMPTY = Long.MIN_VALUE; // value of an empty entry
+    private static final long MIX = 0x9E3779B97F4A7C15L; // used to mix the two longs of a code
+    private static final EvaluationCache[] caches = new EvaluationCache[MAX];
+
+    private final long[] entries; // {code[0], code[1] ^ value ^ code[0] * MIX, value} per entry
+    private final boolean[] referenced; // whether an entry was read since CLOCK passed it over
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Default constructor
+     * @param size number of entries. Must be a power of 2
+     */
+    public EvaluationCache(int size) {
+        entries = new long[size * ENTRY_WIDTH];
+        referenced = new boolean[size];
+        for (int i = 0; i < size; i++)
+            entries[i * ENTRY_WIDTH + 2] = EMPTY;
+    }
+
+    /**
+     * Get the cache for a given level, creating it if needed
+     * @param level
+     * @return
+     */
+    public static EvaluationCache getCache(int level) {
+        EvaluationCache cache = caches[level - 1];
+        if (cache != null)
+            return cache;
+        synchronized (caches) {
+            if (caches[level - 1] == null)
+                caches[level - 1] = new EvaluationCache(CACHE_SIZE);
+            return caches[level - 1];
+        }
+    }
+
+    /**
+     * Get a report about the hit rates of the caches that were used
+     * @return
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (int level = 1; level <= MAX; level++) {
+            EvaluationCache cache = caches[level - 1];
+            if (cache == null)
+                continue;
+            long hits = cache.hits.sum();
+            long total = hits + cache.misses.sum();
+            report.append((report.length() == 0) ? "" : ", ").append("level ").append(level)
+                    .append(": ").append((total == 0) ? 0 : hits * 100 / total).append("% of ")
+                    .append(total);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Get the score stored for a state
+     * @param state
+     * @return the score or null, if the state is not in the cache
+     */
+    public Byte get(BoardState state) {
+        long[] code = state.getCode();
+        int bucket = getBucket(code);
+        for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++) {
+            int i = slot * ENTRY_WIDTH;
+            long value = entries[i + 2];
+            if ((value != EMPTY) && (entries[i] == code[0]) &&
+                    ((entries[i + 1] ^ value ^ (code[0] * MIX)) == code[1])) {
+                referenced[slot] = true;
+                hits.increment();
+                return (byte) value;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Store the score of a state
+     * @param state
+     * @param score
+     */
+    public void put(BoardState state, byte score) {
+        long[] code = state.getCode();
+        int bucket = getBucket(code);
+        int victim = -1;
+        for (int slot = bucket; (slot < bucket + BUCKET_SIZE) && (victim == -1); slot++) {
+            int i = slot * ENTRY_WIDTH;
+            if ((entries[i + 2] == EMPTY) || (entries[i] == code[0])) // free or the same state
+                victim = slot;
+        }
+        // CLOCK: the first entry that was not read since it was last passed over is evicted
+        for (int slot = bucket; (slot < bucket + BUCKET_SIZE) && (victim == -1); slot++) {
+            if (!referenced[slot])
+                victim = slot;
+            referenced[slot] = false;
+        }
+        if (victim == -1)
+            victim = bucket;
+        int i = victim * ENTRY_WIDTH;
+        entries[i] = code[0];
+        entries[i + 1] = code[1] ^ score ^ (code[0] * MIX);
+        entries[i + 2] = score;
+        referenced[victim] = false;
+    }
+
+    /**
+     * Get the first entry of the bucket that corresponds to a given code
+     * @param code
+     * @return
+     */
+    private int getBucket(long[] code) {
+        long hash = (code[0] * MIX) ^ code[1];
+        hash ^= hash >>> 31;
+        return (int) (hash & (referenced.length / BUCKET_SIZE - 1)) * BUCKET_SIZE;
+    }
+}
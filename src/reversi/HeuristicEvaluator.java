@@ -0,0 +1,149 @@
+package reversi;
+
+import static reversi.BoardState.*;
+import static reversi.Disk.*;
+
+/**
+ * A hand-made evaluation of a state, used by minimax at the levels for which there is no trained
+ * model (see StateClassifier.MissingModelPolicy). The evaluation is a weighted sum of a few
+ * classic features, each taken as (value for the player to make a move) - (value for the
+ * opponent):
+ *
+ * DISKS - number of disks;
+ * MOBILITY - number of moves that can be made;
+ * POTENTIAL_MOBILITY - number of empty tiles next to the disks of the other player;
+ * CORNERS - number of corners taken;
+ * X_SQUARES, C_SQUARES - number of tiles next to an empty corner taken (diagonally and along an
+ * edge). These tiles usually give the corner to the opponent, so their weights are negative;
+ * PARITY - 1 if the player to make a move is going to make the last move (the number of empty
+ * tiles is odd), -1 otherwise.
+ *
+ * All the features are computed on bitboards (see StabilityAnalyzer), so the evaluation costs
+ * about as much as generating the moves of a state once.
+ */
+public class HeuristicEvaluator {
+
+    public static final int DISKS = 0;
+    public static final int MOBILITY = 1;
+    public static final int POTENTIAL_MOBILITY = 2;
+    public static final int CORNERS = 3;
+    public static final int X_SQUARES = 4;
+    public static final int C_SQUARES = 5;
+    public static final int PARITY = 6;
+    public static final double[] DEFAULT_WEIGHTS = {0.25, 2, 1, 8, -4, -2, 1};
+    // the weights of the features above. The evaluation is roughly on the same scale as the
+    // score difference, so that it can be compared with the scores predicted by the models
+
+    private static final long[] CORNER_MASKS = new long[4]; // each of the corners
+    private static final long[] X_MASKS = new long[4]; // the diagonal neighbor of each corner
+    private static final long[] C_MASKS = new long[4]; // the neighbors of each corner on the edges
+
+    static {
+        int k = 0;
+        for (int r = 0; r < DIM; r += DIM - 1)
+            for (int c = 0; c < DIM; c += DIM - 1) {
+                int dr = (r == 0) ? 1 : -1; // the direction to the center of the board
+                int dc = (c == 0) ? 1 : -1;
+                CORNER_MASKS[k] = 1L << (r * DIM + c);
+                X_MASKS[k] = 1L << ((r + dr) * DIM + c + dc);
+                C_MASKS[k] = (1L << ((r + dr) * DIM + c)) | (1L << (r * DIM + c + dc));
+                k += 1;
+            }
+    }
+
+    private final double[] weights; // see DEFAULT_WEIGHTS
+
+    /**
+     * Default constructor
+     */
+    public HeuristicEvaluator() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * @param weights the weights of the features (see DEFAULT_WEIGHTS)
+     */
+    public HeuristicEvaluator(double[] weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Evaluate a state
+     * @param state
+     * @return the expected score difference (positive if the player to make a move is winning)
+     */
+    public byte evaluate(BoardState state) {
+        long[] bitboards = StabilityAnalyzer.getBitboards(state);
+        long own = bitboards[state.getTurn().id];
+        long opp = bitboards[getReverse(state.getTurn()).id];
+        double[] features = getFeatures(own, opp);
+        double result = 0;
+        for (int i = 0; i < features.length; i++)
+            result += weights[i] * features[i];
+        return (byte) Math.max(-MAX, Math.min(MAX, Math.round(result)));
+    }
+
+    /**
+     * Calculate the features of a state (see the description of the class)
+     * @param own the bitboard of the player to make a move
+     * @param opp the bitboard of the other player
+     * @return
+     */
+    static double[] getFeatures(long own, long opp) {
+        long empty = ~(own | opp) & ((MAX == 64) ? -1L : (1L << MAX) - 1);
+        double[] features = new double[DEFAULT_WEIGHTS.length];
+        features[DISKS] = Long.bitCount(own) - Long.bitCount(opp);
+        features[MOBILITY] = Long.bitCount(getMoves(own, opp, empty)) -
+                Long.bitCount(getMoves(opp, own, empty));
+        features[POTENTIAL_MOBILITY] = Long.bitCount(getNeighbors(opp) & empty) -
+                Long.bitCount(getNeighbors(own) & empty);
+        for (int k = 0; k < CORNER_MASKS.length; k++) {
+            features[CORNERS] += Long.bitCount(own & CORNER_MASKS[k]) -
+                    Long.bitCount(opp & CORNER_MASKS[k]);
+            if ((empty & CORNER_MASKS[k]) == 0)
+                continue;
+            features[X_SQUARES] += Long.bitCount(own & X_MASKS[k]) -
+                    Long.bitCount(opp & X_MASKS[k]);
+            features[C_SQUARES] += Long.bitCount(own & C_MASKS[k]) -
+                    Long.bitCount(opp & C_MASKS[k]);
+        }
+        features[PARITY] = (Long.bitCount(empty) % 2 == 1) ? 1 : -1;
+        return features;
+    }
+
+    /**
+     * Get the tiles on which a player can make a move
+     * @param own the bitboard of the player
+     * @param opp the bitboard of the other player
+     * @param empty the bitboard of the empty tiles
+     * @return
+     */
+    static long getMoves(long own, long opp, long empty) {
+        long moves = 0;
+        for (int dr = -1; dr <= 1; dr++)
+            for (int dc = -1; dc <= 1; dc++) {
+                if ((dr == 0) && (dc == 0))
+                    continue;
+                // the disks of the other player that are enclosed from one side in this direction
+                long enclosed = StabilityAnalyzer.shift(own, dr, dc) & opp;
+                for (int i = 0; i < DIM - 3; i++)
+                    enclosed |= StabilityAnalyzer.shift(enclosed, dr, dc) & opp;
+                moves |= StabilityAnalyzer.shift(enclosed, dr, dc) & empty;
+            }
+        return moves;
+    }
+
+    /**
+     * Get the tiles next to the tiles of a bitboard (in any of the 8 directions)
+     * @param bitboard
+     * @return
+     */
+    private static long getNeighbors(long bitboard) {
+        long result = 0;
+        for (int dr = -1; dr <= 1; dr++)
+            for (int dc = -1; dc <= 1; dc++)
+                if ((dr != 0) || (dc != 0))
+                    result |= StabilityAnalyzer.shift(bitboard, dr, dc);
+        return result;
+    }
+}
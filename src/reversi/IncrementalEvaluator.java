@@ -0,0 +1,129 @@
+package reversi;
+
+import static reversi.BoardState.*;
+import static reversi.Disk.*;
+
+/**
+ * Evaluates boards with a CompactModel, keeping the first layer of the network up to date as moves
+ * are made and undone instead of recomputing it for every board. Between a state and its child
+ * only the placed disk and the flipped disks change, so updating the first layer only takes a
+ * vector addition per changed tile.
+ *
+ * The first layer is kept in the colour-absolute form: a WHITE disk counts as +1 and a DARK one as
+ * -1. The inputs of the model are relative to the player to make a move (see
+ * StateClassifier.getFeatures()), which only flips the sign of the sum. The weights of the first
+ * layer (with the normalization of the inputs folded into them) are quantized to integers, so
+ * the updates are exact and never accumulate rounding errors.
+ *
+ * An evaluator is not thread-safe: every thread running minimax should create its own.
+ */
+public class IncrementalEvaluator {
+
+    private static final int SCALE = 1 << 12; // quantized weight = round(weight * SCALE)
+
+    private final CompactModel model; // the model whose first layer is maintained
+    private final int[][] tileWeights; // tileWeights[tile][unit] - quantized first-layer weights
+    private final double[] biases; // biases of the first layer (with the normalization folded in)
+    private final int[] accumulator; // sum of tileWeights of the disks on the board (WHITE - DARK)
+
+    /**
+     * Create an evaluator for a given model and initialize it with a given state
+     * @param model
+     * @param state
+     */
+    public IncrementalEvaluator(CompactModel model, BoardState state) {
+        this.model = model;
+        float[][] firstLayer = model.weights[0];
+        tileWeights = new int[MAX][firstLayer.length];
+        biases = new double[firstLayer.length];
+        accumulator = new int[firstLayer.length];
+        for (int unit = 0; unit < firstLayer.length; unit++) {
+            // w * (x - base) / range = (w / range) * x - w * base / range
+            biases[unit] = firstLayer[unit][0];
+            for (int tile = 0; tile < MAX; tile++) {
+                double weight = firstLayer[unit][tile + 1] / model.inputRanges[tile];
+                tileWeights[tile][unit] = (int) Math.round(weight * SCALE);
+                biases[unit] -= weight * model.inputBases[tile];
+            }
+        }
+        byte[][] board = state.getBoard();
+        for (byte i = 0; i < DIM; i++)
+            for (byte j = 0; j < DIM; j++)
+                add(i * DIM + j, getSign(board[i][j]));
+    }
+
+    /**
+     * Update the first layer after a move from parent to child has been made
+     * @param parent the state currently represented by the evaluator
+     * @param child
+     */
+    public void apply(BoardState parent, BoardState child) {
+        update(parent, child);
+    }
+
+    /**
+     * Update the first layer after a move from parent to child has been undone
+     * @param parent
+     * @param child the state currently represented by the evaluator
+     */
+    public void undo(BoardState parent, BoardState child) {
+        update(child, parent);
+    }
+
+    /**
+     * Evaluate the state currently represented by the evaluator. Gives the same result as
+     * StateClassifier.classify() up to the quantization of the weights
+     * @param turn the player to make a move
+     * @return the expected score difference (positive if the player to make a move is winning)
+     */
+    public byte evaluate(Disk turn) {
+        int sign = (turn == WHITE) ? 1 : -1;
+        double[] values = new double[accumulator.length];
+        for (int unit = 0; unit < accumulator.length; unit++)
+            values[unit] = CompactModel.activate(biases[unit] +
+                    sign * (double) accumulator[unit] / SCALE, model.activations[0]);
+        for (int layer = 1; layer < model.weights.length; layer++)
+            values = model.evaluateLayer(layer, values);
+        return (byte) Math.round(values[0] * model.outputRange + model.outputBase);
+    }
+
+    /**
+     * Change the first layer from representing one board to representing another one
+     * @param from
+     * @param to
+     */
+    private void update(BoardState from, BoardState to) {
+        byte[][] fromBoard = from.getBoard();
+        byte[][] toBoard = to.getBoard();
+        for (byte i = 0; i < DIM; i++)
+            for (byte j = 0; j < DIM; j++)
+                if (fromBoard[i][j] != toBoard[i][j])
+                    add(i * DIM + j, getSign(toBoard[i][j]) - getSign(fromBoard[i][j]));
+    }
+
+    /**
+     * Add the weights of a tile multiplied by a given factor to the accumulator
+     * @param tile
+     * @param factor
+     */
+    private void add(int tile, int factor) {
+        if (factor == 0)
+            return;
+        int[] weights = tileWeights[tile];
+        for (int unit = 0; unit < accumulator.length; unit++)
+            accumulator[unit] += factor * weights[unit];
+    }
+
+    /**
+     * Get the colour-absolute value of a tile: +1 for WHITE, -1 for DARK, 0 for an empty tile
+     * @param disk id of the disk on the tile
+     * @return
+     */
+    private static int getSign(byte disk) {
+        if (disk == WHITE.id)
+            return 1;
+        if (disk == DARK.id)
+            return -1;
+        return 0;
+    }
+}
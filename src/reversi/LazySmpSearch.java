@@ -0,0 +1,94 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An alternative to splitting the moves between threads at StateAnalyzer.MULTITHREADING_LEVEL
+ * (Lazy SMP). All the threads search the whole tree from the same root, but each of them (except
+ * the first one) tries the moves in a different order (see the perturbation field of
+ * StateAnalyzer). The threads share the dictionaries of StateAnalyzer, so the states solved by
+ * one thread are reused by the others. The first thread to finish gives the answer, and the
+ * others are stopped.
+ */
+public class LazySmpSearch {
+
+    private final static Logger logger = Logger.getLogger(LazySmpSearch.class);
+
+    /**
+     * Compare Lazy SMP with the split-based multithreading on random states of a given level.
+     * Arguments: level, number of states, number of threads
+     * @param args
+     */
+    public static void main(String[] args) {
+        int level = (args.length > 0) ? Integer.parseInt(args[0]) : 18;
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) :
+                Runtime.getRuntime().availableProcessors();
+        Random random = new Random(0);
+        StateAnalyzer.useColdStore = false; // see resetDictionaries()
+        for (int i = 0; i < count; i++) {
+            BoardState state = StateAnalyzer.getRandomState(level, random);
+            if (state == null) {
+                i--;
+                continue;
+            }
+
+            StateAnalyzer.resetDictionaries();
+            long timeStart = System.currentTimeMillis();
+            Disk splitWinner = new StateAnalyzer(new BoardState(state)).analyze();
+            long splitTime = System.currentTimeMillis() - timeStart;
+
+            StateAnalyzer.resetDictionaries();
+            timeStart = System.currentTimeMillis();
+            Disk smpWinner = analyze(state, threads);
+            long smpTime = System.currentTimeMillis() - timeStart;
+
+            logger.info("State " + i + ": split " + splitWinner + ", " + splitTime + " ms; " +
+                    "Lazy SMP " + smpWinner + ", " + smpTime + " ms");
+            if (splitWinner != smpWinner)
+                logger.error("The results differ for:\n" + state);
+        }
+    }
+
+    /**
+     * Find the winner of a given state
+     * @param state
+     * @param threads number of threads searching from the root
+     * @return NONE, WHITE or DARK depending on who wins
+     */
+    public static Disk analyze(BoardState state, int threads) {
+        SearchControl control = new SearchControl();
+        AtomicReference<Disk> result = new AtomicReference<>();
+        boolean multithreading = StateAnalyzer.multithreading;
+        StateAnalyzer.multithreading = false; // the threads would terminate each other's splits
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int perturbation = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    Disk winner = new StateAnalyzer(new BoardState(state), control,
+                            perturbation).analyze();
+                    if (result.compareAndSet(null, winner))
+                        control.stop();
+                } catch (SearchAbortedException e) {
+                    // another thread has found the answer
+                } finally {
+                    SearchTracer.flush();
+                }
+            }, "LazySMP-" + i);
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers)
+                worker.join();
+        } catch (InterruptedException e) {
+            logger.error("An issue with Multithreading. See LazySmpSearch");
+            System.exit(-1);
+        }
+        StateAnalyzer.multithreading = multithreading;
+        return result.get();
+    }
+}
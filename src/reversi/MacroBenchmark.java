@@ -0,0 +1,334 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Measures the end-to-end speed of the solver on a fixed corpus of positions with known results
+ * and compares it with a baseline, so that a change that makes the search slower (e.g. a worse
+ * order of the moves) is noticed. For each case, the wall time, the number of states analyzed
+ * (Main.count), the number of states per second and the peak heap usage are reported. A case that
+ * takes more than THRESHOLD more time, states or memory than in the baseline is a regression
+ * (the time only counts for the cases that take at least MIN_TIME, since the time of a shorter
+ * case is mostly noise). A case whose winner differs from the known one is a failure.
+ *
+ * Every case is solved single-threaded (so that the number of states does not depend on the
+ * timing of the threads) in a separate JVM with the same JVM options as the benchmark. This way,
+ * the caches filled by one case do not speed up the next one and the peak heap usage belongs to
+ * the case alone. The child JVMs use an empty temporary directory for the ColdStore.
+ *
+ * The corpus is a text file of cases separated by empty lines. Each case consists of the lines
+ * "Case: NAME" and "Result: WINNER" followed by the board in the format of
+ * BoardState.fromString(). The boards have to be of the dimension the program is built for (DIM).
+ * Lines that start with '#' are comments.
+ *
+ * The baseline is a text file with a line "NAME STATES TIME_MS PEAK_HEAP_BYTES" for every case.
+ * It is written by running the benchmark with "-update" on the reference machine.
+ */
+public class MacroBenchmark {
+
+    private final static Logger logger = Logger.getLogger(MacroBenchmark.class);
+    private static final String CORPUS = "benchmark/corpus.txt"; // default corpus file
+    private static final String BASELINE = "benchmark/baseline.txt"; // default baseline file
+    private static final double THRESHOLD = 0.1;
+    // default relative increase (of time, states or memory) that counts as a regression
+    private static final int REPEAT = 3; // default number of times each case is solved
+    private static final long MIN_TIME = 1000; // ms, see the description of the class
+    private static final String RUN_CASE = "-case";
+    // the argument that launches the benchmark as a measurement of a single case
+    private static final String RESULT_PREFIX = "Measured: "; // marks the result of a measurement
+
+    /**
+     * A position of the corpus
+     */
+    static class Case {
+        final String name;
+        final Disk winner; // the known result
+        final BoardState state;
+
+        Case(String name, Disk winner, BoardState state) {
+            this.name = name;
+            this.winner = winner;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Run the benchmark. Arguments (all optional): "-corpus FILE", "-baseline FILE",
+     * "-threshold T" (e.g. 0.1 for 10%), "-repeat N" (solve each case N times and keep the fastest
+     * run, REPEAT by default) and "-update" (save the measurements as the new baseline)
+     * @param args
+     */
+    public static void main(String[] args) {
+        if ((args.length == 3) && args[0].equals(RUN_CASE)) {
+            measure(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        String corpus = CORPUS;
+        String baseline = BASELINE;
+        double threshold = THRESHOLD;
+        int repeat = REPEAT;
+        boolean update = false;
+        for (int i = 0; i < args.length; i++)
+            if (args[i].equals("-corpus"))
+                corpus = args[++i];
+            else if (args[i].equals("-baseline"))
+                baseline = args[++i];
+            else if (args[i].equals("-threshold"))
+                threshold = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-repeat"))
+                repeat = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-update"))
+                update = true;
+
+        ArrayList<Case> cases = null;
+        try {
+            cases = readCorpus(corpus);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Could not read the corpus: " + e.getMessage());
+            System.exit(-1);
+        }
+        HashMap<String, long[]> expected = readBaseline(baseline);
+        HashMap<String, long[]> measured = new HashMap<>();
+        int failures = 0;
+        int regressions = 0;
+        StringBuilder report = new StringBuilder(String.format("%-12s %8s %12s %10s %12s %10s%n",
+                "case", "result", "states", "ms", "states/s", "heap MB"));
+        for (int i = 0; i < cases.size(); i++) {
+            Case c = cases.get(i);
+            String winner = null;
+            long[] result = null; // {states, time, heap}
+            try {
+                for (int j = 0; j < repeat; j++) {
+                    String[] values = run(corpus, i);
+                    long[] measurement = {Long.parseLong(values[1]), Long.parseLong(values[2]),
+                            Long.parseLong(values[3])};
+                    if ((result == null) || (measurement[1] < result[1]))
+                        result = measurement;
+                    winner = values[0];
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not measure " + c.name + ": " + e.getMessage());
+                failures++;
+                continue;
+            }
+            measured.put(c.name, result);
+            report.append(String.format("%-12s %8s %12d %10d %12d %10d%n", c.name, winner,
+                    result[0], result[1], result[0] * 1000 / Math.max(1, result[1]),
+                    result[2] >> 20));
+            if (!winner.equals(c.winner.toString())) {
+                logger.error(c.name + ": the winner is " + winner + ", expected " + c.winner);
+                failures++;
+            }
+            long[] base = expected.get(c.name);
+            if (base == null) {
+                logger.warn(c.name + " is not in the baseline");
+                continue;
+            }
+            String[] metrics = {"states", "time", "peak heap"};
+            for (int j = 0; j < metrics.length; j++)
+                if ((base[j] > 0) && (result[j] > base[j] * (1 + threshold)) &&
+                        ((j != 1) || (base[j] >= MIN_TIME))) {
+                    logger.warn("Regression in " + c.name + ": " + metrics[j] + " " + result[j] +
+                            " vs " + base[j] + " in the baseline (+" +
+                            (result[j] - base[j]) * 100 / base[j] + "%)");
+                    regressions++;
+                }
+        }
+        logger.info("Results:\n" + report);
+        if (update) {
+            try {
+                writeBaseline(baseline, measured, expected);
+                logger.info("The baseline is saved to " + baseline);
+            } catch (IOException e) {
+                logger.error("Could not save the baseline: " + e.getMessage());
+                System.exit(-1);
+            }
+        } else if (expected.isEmpty())
+            logger.warn("There is no baseline. Run with -update to create " + baseline);
+        logger.info(regressions + " regressions, " + failures + " failures");
+        if ((failures > 0) || ((regressions > 0) && !update))
+            System.exit(-1);
+    }
+
+    /**
+     * Read the corpus (see the description of the class)
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static ArrayList<Case> readCorpus(String file) throws IOException {
+        ArrayList<Case> cases = new ArrayList<>();
+        ArrayList<String> block = new ArrayList<>(); // the lines of the current case
+        for (String line : Files.readAllLines(new File(file).toPath())) {
+            line = line.trim();
+            if (line.startsWith("#"))
+                continue;
+            if (line.isEmpty()) {
+                if (!block.isEmpty())
+                    cases.add(parseCase(block));
+                block.clear();
+            } else
+                block.add(line);
+        }
+        if (!block.isEmpty())
+            cases.add(parseCase(block));
+        return cases;
+    }
+
+    /**
+     * Parse a case of the corpus
+     * @param lines
+     * @return
+     */
+    private static Case parseCase(ArrayList<String> lines) {
+        String name = null;
+        Disk winner = null;
+        StringBuilder board = new StringBuilder();
+        for (String line : lines)
+            if (line.startsWith("Case:"))
+                name = line.substring("Case:".length()).trim();
+            else if (line.startsWith("Result:"))
+                winner = Disk.valueOf(line.substring("Result:".length()).trim());
+            else
+                board.append(line).append('\n');
+        if ((name == null) || (winner == null) || (board.length() == 0))
+            throw new IllegalArgumentException("A case needs a name, a result and a board: " +
+                    lines);
+        return new Case(name, winner, BoardState.fromString(board.toString()));
+    }
+
+    /**
+     * Read the baseline (see the description of the class)
+     * @param file
+     * @return {states, time, heap} for each case
+     */
+    private static HashMap<String, long[]> readBaseline(String file) {
+        HashMap<String, long[]> baseline = new HashMap<>();
+        if (!new File(file).exists())
+            return baseline;
+        try {
+            for (String line : Files.readAllLines(new File(file).toPath())) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] values = line.split("\\s+");
+                baseline.put(values[0], new long[] {Long.parseLong(values[1]),
+                        Long.parseLong(values[2]), Long.parseLong(values[3])});
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read the baseline " + file + ": " + e.getMessage());
+        }
+        return baseline;
+    }
+
+    /**
+     * Save the measurements as the baseline. The cases that were not measured (e.g. because the
+     * measurement failed) keep their old values
+     * @param file
+     * @param measured
+     * @param old the old baseline
+     * @throws IOException
+     */
+    private static void writeBaseline(String file, HashMap<String, long[]> measured,
+                                      HashMap<String, long[]> old) throws IOException {
+        HashMap<String, long[]> baseline = new HashMap<>(old);
+        baseline.putAll(measured);
+        File parent = new File(file).getAbsoluteFile().getParentFile();
+        if (!parent.exists())
+            parent.mkdirs();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            writer.println("# NAME STATES TIME_MS PEAK_HEAP_BYTES (see MacroBenchmark.java)");
+            baseline.keySet().stream().sorted().forEach(name -> {
+                long[] values = baseline.get(name);
+                writer.println(name + " " + values[0] + " " + values[1] + " " + values[2]);
+            });
+        }
+    }
+
+    /**
+     * Solve a case of the corpus in a separate JVM
+     * @param corpus
+     * @param index the index of the case in the corpus
+     * @return {winner, states, time in ms, peak heap in bytes}
+     * @throws IOException
+     */
+    private static String[] run(String corpus, int index) throws IOException {
+        File coldStore = Files.createTempDirectory("coldStore").toFile();
+        File log = File.createTempFile("benchmark", ".log");
+        try {
+            ArrayList<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" +
+                    File.separator + "java");
+            for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+                if (!argument.startsWith("-D" + StateAnalyzer.COLD_STORE_PROPERTY + "="))
+                    command.add(argument);
+            command.add("-D" + StateAnalyzer.COLD_STORE_PROPERTY + "=" + coldStore.getPath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(MacroBenchmark.class.getName());
+            command.add(RUN_CASE);
+            command.add(corpus);
+            command.add(String.valueOf(index));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(log).start();
+            process.waitFor();
+            for (String line : Files.readAllLines(log.toPath())) {
+                int i = line.indexOf(RESULT_PREFIX);
+                if (i != -1)
+                    return line.substring(i + RESULT_PREFIX.length()).trim().split(" ");
+            }
+            throw new IOException("The measurement failed. See " + log.getPath());
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while measuring case " + index);
+        } finally {
+            File[] files = coldStore.listFiles();
+            if (files != null)
+                for (File file : files)
+                    file.delete();
+            coldStore.delete();
+            log.delete();
+        }
+    }
+
+    /**
+     * Solve a case of the corpus and report the winner, the number of states analyzed, the time
+     * taken and the peak heap usage
+     * @param corpus
+     * @param index
+     */
+    private static void measure(String corpus, int index) {
+        Case c = null;
+        try {
+            c = readCorpus(corpus).get(index);
+        } catch (IOException e) {
+            logger.error("Could not read the corpus: " + e.getMessage());
+            System.exit(-1);
+        }
+        StateAnalyzer.multithreading = false;
+        StateClassifier.preloadModels(StateAnalyzer.getMinimaxEvaluationLevels());
+        System.gc();
+        ArrayList<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                pools.add(pool);
+            }
+        long countStart = Main.count;
+        long timeStart = System.currentTimeMillis();
+        Disk winner = new StateAnalyzer(new BoardState(c.state)).analyze();
+        long time = System.currentTimeMillis() - timeStart;
+        long heap = 0; // the sum of the peaks of the heap pools
+        for (MemoryPoolMXBean pool : pools)
+            heap += pool.getPeakUsage().getUsed();
+        System.out.println(RESULT_PREFIX + winner + " " + (Main.count - countStart) + " " + time +
+                " " + heap);
+    }
+}
@@ -3,6 +3,7 @@ package reversi;
 import org.apache.log4j.Logger;
 
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
 import static reversi.BoardState.*;
 import static reversi.Disk.*;
@@ -27,6 +28,8 @@ public class Main {
     // stores the number of times the coincDict was used. Either levCount or
     // coincCount can be updated at each pass, but never both. This array is used to assess the
     // benefit of using a dictionary to store previously evaluated states
+    public static Long[] stableCount = new Long[MAX];
+    // stores the number of states decided early because one player had enough stable disks
     public static Long[] currBF = new Long[MAX];
     // current branching factors
     public static long timeStart = System.currentTimeMillis();
@@ -35,6 +38,7 @@ public class Main {
         for (byte i = 0; i < MAX; i ++) {
             levCount[i] = 0L;
             coincCount[i] = 0L;
+            stableCount[i] = 0L;
             currBF[i] = 0L;
             lastTimeUpdated[i] = 0L;
         }
@@ -42,13 +46,50 @@ public class Main {
 
     /**
      * Run the program and find the winner
-     * @param args
+     * @param args "-failfast" to terminate the program if some models are missing, "-train" to
+     *             train the missing models (by default, a heuristic is used instead),
+     *             "-lazysmp N" to search with N threads using Lazy SMP (see LazySmpSearch)
+     *             instead of splitting the moves between the threads,
+     *             "-certificate FILE" to write a proof of the result (see ProofCertificate),
+     *             "-probcut" to prune the minimax searches that sort the moves (see ProbCut),
+     *             "-deadline SECONDS" to stop the search after the given time and report what is
+     *             known by then (see AnytimeSolver)
      */
     public static void main(String args[]) {
         logger.info("Program launched");
+        int lazySmpThreads = 0;
+        String certificate = null; // the file to write a proof of the result to
+        long deadline = 0; // when to stop the search (0, if there is no time limit)
+        for (int i = 0; i < args.length; i++)
+            if (args[i].equals("-failfast"))
+                StateClassifier.missingModelPolicy = StateClassifier.MissingModelPolicy.FAIL;
+            else if (args[i].equals("-train"))
+                StateClassifier.missingModelPolicy = StateClassifier.MissingModelPolicy.TRAIN;
+            else if (args[i].equals("-lazysmp"))
+                lazySmpThreads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-certificate"))
+                certificate = args[++i];
+            else if (args[i].equals("-probcut"))
+                ProbCut.enable(StateAnalyzer.getProbCutLevels(), ProbCut.CONFIDENCE);
+            else if (args[i].equals("-deadline"))
+                deadline = System.currentTimeMillis() + Long.parseLong(args[++i]) * 1000;
+        StateClassifier.preloadModels(StateAnalyzer.getMinimaxEvaluationLevels());
         BoardState state = new BoardState();
-        StateAnalyzer analyzer = new StateAnalyzer(state);
-        Disk winner = analyzer.analyze();
+        Disk winner;
+        if (deadline > 0) {
+            AnytimeSolver.Result result = AnytimeSolver.analyze(state, deadline);
+            winner = result.winner;
+            if (winner == null) { // the deadline was reached
+                System.out.println("Not solved in time. What is known:\n" + result);
+                updateLog();
+                saveDictionaries();
+                SearchTracer.close();
+                return;
+            }
+        } else if (lazySmpThreads > 0)
+            winner = LazySmpSearch.analyze(state, lazySmpThreads);
+        else
+            winner = new StateAnalyzer(state).analyze();
         if (winner == DARK)
             System.out.println("Dark wins!");
         else if (winner == WHITE)
@@ -56,6 +97,15 @@ public class Main {
         else
             System.out.println("Truce!");
         updateLog();
+        if (certificate != null) {
+            try {
+                ProofCertificate.write(new BoardState(), winner, certificate,
+                        ProofCertificate.LEAF_LEVEL);
+            } catch (IOException e) {
+                logger.error("Could not write the certificate: " + e);
+            }
+        }
+        SearchTracer.close();
     }
 
     /**
@@ -65,6 +115,9 @@ public class Main {
     public static void updateLog() {
         logger.info("# of different states analyzed: " + sum(levCount));
         logger.info("# of states reused: " + sum(coincCount));
+        logger.info("# of states decided by stable disks: " + sum(stableCount));
+        logger.info("Evaluation cache hit rates: " + EvaluationCache.getReport());
+        logger.info("Cold store: " + StateAnalyzer.coldStore.getReport());
         Double[] bfs = new Double[MAX - INIT]; // branching factors
         byte min_level_reached = 0;
         for (byte i = INIT; i < MAX; i++) {
@@ -89,23 +142,30 @@ public class Main {
         logArray("Current BFs: ", currBF, 1);
         if (min_level_reached == INIT) {
             // if this is the last time the function is called, save the coincDict
-            try {
-                for (int level = 3; level < StateAnalyzer.coincLevel; level++) {
-                    FileOutputStream fileOut =
-                            new FileOutputStream("BoardStates_level_" + level + ".ser");
-                    ObjectOutputStream out = new ObjectOutputStream(fileOut);
-                    out.writeObject(StateAnalyzer.coincDict[level]);
-                    out.close();
-                    fileOut.close();
-                }
-            } catch (Exception i) {
-                logger.warn("Could not save the hashtables to the disk.");
-            }
+            saveDictionaries();
             return;
         }
         //TODO: Adequate remaining time prediction
     }
 
+    /**
+     * Save the coincDict to the disk
+     */
+    public static void saveDictionaries() {
+        try {
+            for (int level = 3; level < StateAnalyzer.coincLevel; level++) {
+                FileOutputStream fileOut =
+                        new FileOutputStream("BoardStates_level_" + level + ".ser");
+                ObjectOutputStream out = new ObjectOutputStream(fileOut);
+                out.writeObject(StateAnalyzer.coincDict[level]);
+                out.close();
+                fileOut.close();
+            }
+        } catch (Exception i) {
+            logger.warn("Could not save the hashtables to the disk.");
+        }
+    }
+
     /**
      * Convert miliseconds to a human-readable String representing time
      * @param milisec
@@ -0,0 +1,167 @@
+package reversi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import static reversi.BoardState.*;
+
+/**
+ * Iterates over the moves (boards) that can be made from a state, creating each board only when
+ * it is requested. This way, if the search stops after the first few moves (e.g. because a
+ * winning move is found), the remaining boards are never created. The tiles are tried in stages:
+ * first the suggested tile (if any), then the corners, and then the other tiles ordered by a cheap
+ * static estimate of how good it is to place a disk there (see PRIORITIES).
+ *
+ * An iterator can also be created from a list of boards that was already calculated (e.g. sorted
+ * by minimax), in which case it simply iterates over the list.
+ */
+public class MoveIterator implements Iterator<BoardState> {
+
+    private static final byte[] PRIORITIES = new byte[MAX];
+    // The order in which the tiles are tried (the higher the priority, the earlier). Corners come
+    // first, then the edges, then the inner tiles. The tiles next to the corners (through which
+    // the opponent can take the corner) come last
+
+    static {
+        for (int r = 0; r < DIM; r++)
+            for (int c = 0; c < DIM; c++) {
+                int dr = Math.min(r, DIM - 1 - r); // distance to the closest horizontal edge
+                int dc = Math.min(c, DIM - 1 - c); // distance to the closest vertical edge
+                byte priority;
+                if ((dr == 0) && (dc == 0))
+                    priority = 4; // corner
+                else if ((dr == 1) && (dc == 1))
+                    priority = 0; // diagonal neighbor of a corner
+                else if (((dr == 0) && (dc == 1)) || ((dr == 1) && (dc == 0)))
+                    priority = 1; // edge neighbor of a corner
+                else if ((dr == 0) || (dc == 0))
+                    priority = 3; // edge
+                else
+                    priority = 2;
+                PRIORITIES[r * DIM + c] = priority;
+            }
+    }
+
+    private final BoardState state; // the state from which the moves are made
+    private final byte[] tiles;
+    // tiles on which the moves are made, in the order they are tried (null if they are unknown)
+    private final List<BoardState> moves; // the list to iterate over, if the moves are precalculated
+    private int next = 0; // index of the next move
+    private byte lastTile = -1; // the tile of the move returned last
+
+    /**
+     * Create an iterator over the moves that can be made from a state (see
+     * BoardState.getMoves(boolean))
+     * @param state
+     * @param suggestedTile tile to try first, or -1 if there is no suggestion
+     */
+    public MoveIterator(BoardState state, byte suggestedTile) {
+        this.state = state;
+        this.moves = null;
+        tiles = state.getMoveTiles(true);
+        // insertion sort by priority. The number of tiles is small and mostly sorted already
+        for (int i = 1; i < tiles.length; i++) {
+            byte tile = tiles[i];
+            int j = i - 1;
+            for (; (j >= 0) && (getPriority(tiles[j], suggestedTile) <
+                    getPriority(tile, suggestedTile)); j--)
+                tiles[j + 1] = tiles[j];
+            tiles[j + 1] = tile;
+        }
+    }
+
+    /**
+     * Create an iterator over a precalculated list of moves
+     * @param moves the moves or null, if no moves are possible
+     */
+    public MoveIterator(List<BoardState> moves) {
+        this(moves, null);
+    }
+
+    /**
+     * Create an iterator over a precalculated list of moves, the tiles of which are known
+     * @param moves the moves or null, if no moves are possible
+     * @param tiles the tiles of the moves (or null, if they are unknown)
+     */
+    public MoveIterator(List<BoardState> moves, byte[] tiles) {
+        this.state = null;
+        this.tiles = tiles;
+        this.moves = (moves == null) ? new ArrayList<>() : moves;
+    }
+
+    /**
+     * The total number of moves (including those that were already returned)
+     * @return
+     */
+    public int size() {
+        return (moves != null) ? moves.size() : tiles.length;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next < size();
+    }
+
+    @Override
+    public BoardState next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        if (moves != null) {
+            lastTile = (tiles != null) ? tiles[next] : -1;
+            return moves.get(next++);
+        }
+        lastTile = tiles[next++];
+        return state.makeMove(lastTile);
+    }
+
+    /**
+     * Start the iteration from the move with a given index (the moves before it are tried last).
+     * Has to be called before the first call to next()
+     * @param offset the index of the move to start with (modulo the number of moves)
+     */
+    public void rotate(int offset) {
+        if (size() == 0)
+            return;
+        offset %= size();
+        if (moves != null)
+            Collections.rotate(moves, -offset);
+        if (tiles != null) {
+            byte[] rotated = new byte[tiles.length];
+            for (int i = 0; i < tiles.length; i++)
+                rotated[i] = tiles[(i + offset) % tiles.length];
+            System.arraycopy(rotated, 0, tiles, 0, tiles.length);
+        }
+    }
+
+    /**
+     * Get the tile of the move returned last by next(). If the moves were precalculated without
+     * their tiles, -1 is returned
+     * @return
+     */
+    public byte getLastTile() {
+        return lastTile;
+    }
+
+    /**
+     * Create all the remaining moves and return them as a list
+     * @return
+     */
+    public ArrayList<BoardState> toList() {
+        ArrayList<BoardState> result = new ArrayList<>(size() - next);
+        while (hasNext())
+            result.add(next());
+        return result;
+    }
+
+    /**
+     * Get the priority of a tile (see PRIORITIES). The suggested tile goes before all others
+     * @param tile
+     * @param suggestedTile
+     * @return
+     */
+    private static byte getPriority(byte tile, byte suggestedTile) {
+        return (tile == suggestedTile) ? Byte.MAX_VALUE : PRIORITIES[tile];
+    }
+}
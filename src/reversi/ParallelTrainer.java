@@ -0,0 +1,488 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+import weka.classifiers.functions.MultilayerPerceptron;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static reversi.BoardState.*;
+
+/**
+ * Trains the same network as StateClassifier.trainWekaClassifier() (two hidden sigmoid layers of
+ * (number of inputs + 1) / 2 units and a linear output), but with mini-batch Adam on all the
+ * cores. Every batch is split between the threads, each of which computes the gradient of its
+ * share of the batch; the gradients are then summed up and applied at once. A part of the dataset
+ * is put aside for validation, and the training stops once the error on it stops improving (the
+ * weights with the lowest validation error are kept).
+ *
+ * The inputs and the target are normalized to [-1, 1] the same way Weka does it. The result is a
+ * CompactModel, which can also be copied into a Weka MultilayerPerceptron (see toWeka()).
+ *
+ * A trainer can also be fed a stream of examples instead of a dataset (see trainBatch()). Since
+ * the examples are not known in advance, the inputs are then assumed to be in [-1, 1] already and
+ * the target in [-MAX, MAX] (as for the features and the scores of the states).
+ */
+public class ParallelTrainer {
+
+    private final static Logger logger = Logger.getLogger(ParallelTrainer.class);
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int BATCH_SIZE = 256; // number of examples per update of the weights
+    private static final double LEARNING_RATE = 0.001;
+    private static final double BETA1 = 0.9; // decay rate of the first moment estimates (Adam)
+    private static final double BETA2 = 0.999; // decay rate of the second moment estimates (Adam)
+    private static final double EPSILON = 1e-8;
+    private static final int VALIDATION_SET_SIZE = 10;
+    // percentage of the dataset used for validation (as in StateClassifier.trainWekaClassifier())
+    private static final int MAX_EPOCHS = 500;
+    private static final int PATIENCE = 10;
+    // number of epochs without an improvement of the validation error after which to stop
+
+    private final double[][] inputs; // normalized inputs of all the examples
+    private final double[] targets; // normalized targets of all the examples
+    private final int trainingSize; // the first trainingSize examples are used for training
+    private final double[] inputBases; // a normalized input is (input - inputBase) / inputRange
+    private final double[] inputRanges;
+    private final double outputBase; // the output is (normalized output) * outputRange + outputBase
+    private final double outputRange;
+    private final int[] layerSizes; // number of units in each layer (the output layer included)
+    private final double[][][] weights; // weights[layer][unit][input + 1]. The bias comes first
+    private final double[][][] firstMoments; // Adam estimates, same shape as weights
+    private final double[][][] secondMoments;
+    private final Random random = new Random(0);
+    private int steps = 0; // number of updates made by trainBatch()
+
+    /**
+     * Default constructor
+     * @param dataSet a dataset with a numeric class (e.g. one created by
+     *                StateClassifier.createDataset())
+     */
+    public ParallelTrainer(Instances dataSet) {
+        int numInputs = dataSet.numAttributes() - 1;
+        int classIndex = dataSet.classIndex();
+        int size = dataSet.numInstances();
+        double[][] rawInputs = new double[size][numInputs];
+        double[] rawTargets = new double[size];
+        for (int n = 0; n < size; n++) {
+            Instance instance = dataSet.instance(n);
+            for (int i = 0, j = 0; i < dataSet.numAttributes(); i++)
+                if (i != classIndex)
+                    rawInputs[n][j++] = instance.value(i);
+            rawTargets[n] = instance.classValue();
+        }
+
+        inputBases = new double[numInputs];
+        inputRanges = new double[numInputs];
+        double[] column = new double[size];
+        for (int i = 0; i < numInputs; i++) {
+            for (int n = 0; n < size; n++)
+                column[n] = rawInputs[n][i];
+            double[] normalization = getNormalization(column);
+            inputBases[i] = normalization[0];
+            inputRanges[i] = normalization[1];
+        }
+        double[] normalization = getNormalization(rawTargets);
+        outputBase = normalization[0];
+        outputRange = normalization[1];
+
+        // shuffle the examples, so that the validation set is a random sample
+        Integer[] order = new Integer[size];
+        for (int n = 0; n < size; n++)
+            order[n] = n;
+        Collections.shuffle(Arrays.asList(order), random);
+        inputs = new double[size][numInputs];
+        targets = new double[size];
+        for (int n = 0; n < size; n++) {
+            for (int i = 0; i < numInputs; i++)
+                inputs[n][i] = (rawInputs[order[n]][i] - inputBases[i]) / inputRanges[i];
+            targets[n] = (rawTargets[order[n]] - outputBase) / outputRange;
+        }
+        trainingSize = size - size * VALIDATION_SET_SIZE / 100;
+
+        int hidden = (numInputs + 1) / 2; // same as "a" in Weka
+        layerSizes = new int[] {hidden, hidden, 1};
+        weights = createLayers(numInputs, true);
+        firstMoments = createLayers(numInputs, false);
+        secondMoments = createLayers(numInputs, false);
+    }
+
+    /**
+     * A constructor for training on a stream of examples (see trainBatch())
+     * @param numInputs
+     */
+    public ParallelTrainer(int numInputs) {
+        inputs = new double[0][];
+        targets = new double[0];
+        trainingSize = 0;
+        inputBases = new double[numInputs];
+        inputRanges = new double[numInputs];
+        Arrays.fill(inputRanges, 1);
+        outputBase = 0;
+        outputRange = MAX;
+        int hidden = (numInputs + 1) / 2;
+        layerSizes = new int[] {hidden, hidden, 1};
+        weights = createLayers(numInputs, true);
+        firstMoments = createLayers(numInputs, false);
+        secondMoments = createLayers(numInputs, false);
+    }
+
+    /**
+     * Create an array of the shape of the weights of the network
+     * @param numInputs
+     * @param randomize whether to fill it with random initial weights (or with zeros)
+     * @return
+     */
+    private double[][][] createLayers(int numInputs, boolean randomize) {
+        double[][][] layers = new double[layerSizes.length][][];
+        for (int l = 0; l < layerSizes.length; l++) {
+            int layerInputs = (l == 0) ? numInputs : layerSizes[l - 1];
+            layers[l] = new double[layerSizes[l]][layerInputs + 1];
+            double scale = Math.sqrt(1.0 / layerInputs);
+            if (randomize)
+                for (double[] unitWeights : layers[l])
+                    for (int i = 1; i < unitWeights.length; i++)
+                        unitWeights[i] = random.nextGaussian() * scale;
+        }
+        return layers;
+    }
+
+    /**
+     * Train the models for the given levels (all levels, for which there are datasets, if none
+     * are given) and save them in both the Weka and the compact formats
+     * @param args
+     */
+    public static void main(String[] args) {
+        for (int level = 1; level <= MAX; level++) {
+            if ((args.length > 0) && !Arrays.asList(args).contains(String.valueOf(level)))
+                continue;
+            if ((args.length == 0) && !new File(StateClassifier.getDatasetFile(level)).exists())
+                continue;
+            long timeStart = System.currentTimeMillis();
+            Instances dataSet = StateClassifier.getDataset(level);
+            ParallelTrainer trainer = new ParallelTrainer(dataSet);
+            CompactModel model = trainer.train();
+            logger.info("Model for level " + level + " trained in " +
+                    Main.getDuration(System.currentTimeMillis() - timeStart));
+            save(level, model, dataSet);
+        }
+    }
+
+    /**
+     * Save the model for a level in both the Weka and the compact formats
+     * @param level
+     * @param model
+     * @param dataSet the dataset on which the model was trained
+     */
+    static void save(int level, CompactModel model, Instances dataSet) {
+        try {
+            model.write(StateClassifier.getModelFile(level, true));
+            SerializationHelper.write(StateClassifier.getModelFile(level, false),
+                    toWeka(model, dataSet));
+        } catch (Exception e) {
+            logger.error("Model for level " + level + " could not be saved: " + e);
+        }
+    }
+
+    /**
+     * Train the network
+     * @return the model with the lowest validation error
+     */
+    public CompactModel train() {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        Worker[] workers = new Worker[THREADS];
+        for (int t = 0; t < THREADS; t++)
+            workers[t] = new Worker();
+        int[] order = new int[trainingSize];
+        for (int n = 0; n < trainingSize; n++)
+            order[n] = n;
+
+        CompactModel best = getModel();
+        double bestError = getValidationError();
+        int step = 0;
+        int epochsWithoutImprovement = 0;
+        try {
+            for (int epoch = 0; (epoch < MAX_EPOCHS) && (epochsWithoutImprovement < PATIENCE);
+                 epoch++) {
+                shuffle(order);
+                for (int start = 0; start < trainingSize; start += BATCH_SIZE) {
+                    int end = Math.min(trainingSize, start + BATCH_SIZE);
+                    List<Callable<Void>> tasks = new ArrayList<>(THREADS);
+                    int share = (end - start + THREADS - 1) / THREADS;
+                    for (int t = 0; t < THREADS; t++) {
+                        Worker worker = workers[t];
+                        int from = start + t * share;
+                        int to = Math.min(end, from + share);
+                        tasks.add(() -> {
+                            worker.computeGradient(inputs, targets, order, from, to);
+                            return null;
+                        });
+                    }
+                    for (Future<Void> future : executor.invokeAll(tasks))
+                        future.get();
+                    step += 1;
+                    update(workers, end - start, step);
+                }
+                double error = getValidationError();
+                if (error < bestError) {
+                    bestError = error;
+                    best = getModel();
+                    epochsWithoutImprovement = 0;
+                } else
+                    epochsWithoutImprovement += 1;
+                logger.debug("Epoch " + epoch + ", validation error " + error);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error("Training failed: " + e);
+            System.exit(-1);
+        } finally {
+            executor.shutdown();
+        }
+        logger.info("Training finished. Validation error (in normalized units): " + bestError);
+        return best;
+    }
+
+    /**
+     * Make one update of the weights on a mini-batch of examples from a stream (see the
+     * constructor for streams). The batches of a stream are small, so the gradient is computed by
+     * the calling thread alone
+     * @param batchInputs the inputs of the examples (in [-1, 1])
+     * @param batchTargets the targets of the examples (in [-MAX, MAX])
+     */
+    public void trainBatch(double[][] batchInputs, double[] batchTargets) {
+        Worker worker = new Worker();
+        int[] order = new int[batchInputs.length];
+        for (int n = 0; n < order.length; n++)
+            order[n] = n;
+        worker.computeGradient(batchInputs, normalizeTargets(batchTargets), order, 0,
+                order.length);
+        steps += 1;
+        update(new Worker[] {worker}, order.length, steps);
+    }
+
+    /**
+     * Get the mean squared error of the current weights on examples from a stream (in normalized
+     * units, see trainBatch())
+     * @param examples the inputs of the examples
+     * @param exampleTargets the targets of the examples
+     * @return
+     */
+    public double getError(double[][] examples, double[] exampleTargets) {
+        Worker worker = new Worker();
+        double[] normalized = normalizeTargets(exampleTargets);
+        double error = 0;
+        for (int n = 0; n < examples.length; n++) {
+            double difference = worker.forward(examples[n]) - normalized[n];
+            error += difference * difference;
+        }
+        return error / Math.max(1, examples.length);
+    }
+
+    /**
+     * Normalize the targets of examples from a stream
+     * @param rawTargets
+     * @return
+     */
+    private double[] normalizeTargets(double[] rawTargets) {
+        double[] result = new double[rawTargets.length];
+        for (int n = 0; n < result.length; n++)
+            result[n] = (rawTargets[n] - outputBase) / outputRange;
+        return result;
+    }
+
+    /**
+     * Create a Weka MultilayerPerceptron that computes the same function as a given model. Weka
+     * is only used to build the structure of the network: it is trained for a single epoch (Weka
+     * ignores a training time below 1 and would train for 500), after which the weights are
+     * copied into it (see CompactModel.copyToWeka())
+     * @param model a model trained by a ParallelTrainer
+     * @param dataSet the dataset on which the model was trained (required to build the network)
+     * @return
+     */
+    public static MultilayerPerceptron toWeka(CompactModel model, Instances dataSet)
+            throws Exception {
+        MultilayerPerceptron perceptron = new MultilayerPerceptron();
+        StringBuilder hiddenLayers = new StringBuilder();
+        for (int l = 0; l < model.weights.length - 1; l++)
+            hiddenLayers.append((l == 0) ? "" : ",").append(model.weights[l].length);
+        perceptron.setHiddenLayers(hiddenLayers.toString());
+        perceptron.setValidationSetSize(0);
+        perceptron.setTrainingTime(1);
+        perceptron.buildClassifier(dataSet);
+        model.copyToWeka(perceptron);
+        return perceptron;
+    }
+
+    /**
+     * Get the current weights as a CompactModel
+     * @return
+     */
+    public CompactModel getModel() {
+        float[][][] modelWeights = new float[weights.length][][];
+        byte[] activations = new byte[weights.length];
+        for (int l = 0; l < weights.length; l++) {
+            modelWeights[l] = new float[weights[l].length][weights[l][0].length];
+            for (int u = 0; u < weights[l].length; u++)
+                for (int i = 0; i < weights[l][u].length; i++)
+                    modelWeights[l][u][i] = (float) weights[l][u][i];
+            activations[l] = (l == weights.length - 1) ? CompactModel.LINEAR : CompactModel.SIGMOID;
+        }
+        return new CompactModel(inputBases.clone(), inputRanges.clone(), outputBase, outputRange,
+                modelWeights, activations);
+    }
+
+    /**
+     * Apply the gradients computed by the workers (Adam)
+     * @param workers
+     * @param batchSize
+     * @param step number of updates made so far (this one included)
+     */
+    private void update(Worker[] workers, int batchSize, int step) {
+        double correction1 = 1 - Math.pow(BETA1, step);
+        double correction2 = 1 - Math.pow(BETA2, step);
+        for (int l = 0; l < weights.length; l++)
+            for (int u = 0; u < weights[l].length; u++)
+                for (int i = 0; i < weights[l][u].length; i++) {
+                    double gradient = 0;
+                    for (Worker worker : workers) {
+                        gradient += worker.gradient[l][u][i];
+                        worker.gradient[l][u][i] = 0;
+                    }
+                    gradient /= batchSize;
+                    firstMoments[l][u][i] = BETA1 * firstMoments[l][u][i] + (1 - BETA1) * gradient;
+                    secondMoments[l][u][i] = BETA2 * secondMoments[l][u][i] +
+                            (1 - BETA2) * gradient * gradient;
+                    weights[l][u][i] -= LEARNING_RATE * (firstMoments[l][u][i] / correction1) /
+                            (Math.sqrt(secondMoments[l][u][i] / correction2) + EPSILON);
+                }
+    }
+
+    /**
+     * Get the mean squared error on the validation set (in normalized units)
+     * @return
+     */
+    private double getValidationError() {
+        Worker worker = new Worker();
+        double error = 0;
+        for (int n = trainingSize; n < inputs.length; n++) {
+            double difference = worker.forward(inputs[n]) - targets[n];
+            error += difference * difference;
+        }
+        return error / Math.max(1, inputs.length - trainingSize);
+    }
+
+    /**
+     * Shuffle an array of indices
+     * @param order
+     */
+    private void shuffle(int[] order) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    /**
+     * Get the base and the range with which to normalize a column of values to [-1, 1]
+     * @param values
+     * @return {base, range}
+     */
+    private static double[] getNormalization(double[] values) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if ((values.length == 0) || (max == min))
+            return new double[] {(values.length == 0) ? 0 : min, 1};
+        return new double[] {(max + min) / 2, (max - min) / 2};
+    }
+
+    /**
+     * The buffers that a thread needs to compute the gradient of a part of a batch
+     */
+    private class Worker {
+        final double[][][] gradient = new double[weights.length][][]; // same shape as weights
+        final double[][] outputs = new double[layerSizes.length][]; // outputs of each layer
+        final double[][] errors = new double[layerSizes.length][];
+        // derivatives of the loss by the weighted sums of the units of each layer
+
+        Worker() {
+            for (int l = 0; l < weights.length; l++) {
+                gradient[l] = new double[weights[l].length][weights[l][0].length];
+                outputs[l] = new double[layerSizes[l]];
+                errors[l] = new double[layerSizes[l]];
+            }
+        }
+
+        /**
+         * Add the gradient of the squared error on the given examples to the gradient buffer
+         * @param examples normalized inputs
+         * @param exampleTargets normalized targets
+         * @param order indices of the examples
+         * @param from
+         * @param to
+         */
+        void computeGradient(double[][] examples, double[] exampleTargets, int[] order, int from,
+                             int to) {
+            int last = layerSizes.length - 1;
+            for (int n = from; n < to; n++) {
+                double[] input = examples[order[n]];
+                errors[last][0] = forward(input) - exampleTargets[order[n]];
+                for (int l = last; l >= 0; l--) {
+                    double[] layerInputs = (l == 0) ? input : outputs[l - 1];
+                    for (int u = 0; u < layerSizes[l]; u++) {
+                        double error = errors[l][u];
+                        double[] unitGradient = gradient[l][u];
+                        unitGradient[0] += error;
+                        for (int i = 0; i < layerInputs.length; i++)
+                            unitGradient[i + 1] += error * layerInputs[i];
+                    }
+                    if (l == 0)
+                        break;
+                    for (int i = 0; i < layerSizes[l - 1]; i++) {
+                        double sum = 0;
+                        for (int u = 0; u < layerSizes[l]; u++)
+                            sum += errors[l][u] * weights[l][u][i + 1];
+                        double output = outputs[l - 1][i];
+                        errors[l - 1][i] = sum * output * (1 - output); // derivative of sigmoid
+                    }
+                }
+            }
+        }
+
+        /**
+         * Calculate the output of the network, storing the outputs of every layer
+         * @param input normalized input
+         * @return normalized output
+         */
+        double forward(double[] input) {
+            double[] layerInputs = input;
+            for (int l = 0; l < layerSizes.length; l++) {
+                for (int u = 0; u < layerSizes[l]; u++) {
+                    double[] unitWeights = weights[l][u];
+                    double sum = unitWeights[0];
+                    for (int i = 0; i < layerInputs.length; i++)
+                        sum += unitWeights[i + 1] * layerInputs[i];
+                    outputs[l][u] = (l == layerSizes.length - 1) ? sum :
+                            CompactModel.activate(sum, CompactModel.SIGMOID);
+                }
+                layerInputs = outputs[l];
+            }
+            return outputs[layerSizes.length - 1][0];
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import static reversi.BoardState.*;
+
+/**
+ * Forward pruning for the minimax searches that sort the moves (see StateAnalyzer.minimax()).
+ * Before a state deep inside such a search is expanded, its score is predicted with the model of
+ * its level (or with HeuristicEvaluator, see StateClassifier.getAvailableClassifier()). If the
+ * prediction says that the score of the state is above the alpha-beta bound with high confidence,
+ * the state is cut off without being searched. The prediction is calibrated for each level with a
+ * linear regression: the deep score is assumed to be a * prediction + b plus normally distributed
+ * noise with the standard deviation sigma, and a state is cut off if
+ * a * prediction + b - confidence * sigma is at least the bound.
+ *
+ * The deep score of a state is the one the search would find: the score of a minimax search down
+ * to the nearest level at which the searches are evaluated (see getEvaluationLevel()). The states
+ * to calibrate on are sampled and labeled once and stored in dataSets/ (see
+ * StateClassifier.getCalibrationFile()). They are never used to train a model, so the model of a
+ * level is calibrated on states it has not seen.
+ *
+ * The minimax scores are only used to sort the moves, not to prove anything, so a wrong cut only
+ * makes the order of the moves worse. ProbCut is off by default (see Main).
+ */
+public class ProbCut {
+
+    private final static Logger logger = Logger.getLogger(ProbCut.class);
+    public static final int MIN_DEPTH = 4;
+    // only the states that have at least this many levels left to search are tried to be cut off.
+    // Closer to the leaves, searching the state is about as cheap as predicting its score
+    private static final int MIN_SAMPLES = 100; // minimum size of a dataset to calibrate on
+    private static final int CALIBRATION_SIZE = 200; // number of states sampled for a level
+    public static final double CONFIDENCE = 1.5;
+    // default confidence (in standard deviations). 1.5 cuts off about 7% of the states that should
+    // not have been cut off
+    private static final ProbCut[] cuts = new ProbCut[MAX];
+    // the calibrated predictions for each level (level i at index i - 1) or null, if the states of
+    // the level are never cut off
+
+    private final StateClassifier classifier; // makes the predictions
+    private final double a; // the coefficients of the regression (see the description of the class)
+    private final double b;
+    private final double margin; // confidence * sigma
+
+    /**
+     * Default constructor
+     * @param classifier
+     * @param a
+     * @param b
+     * @param margin
+     */
+    private ProbCut(StateClassifier classifier, double a, double b, double margin) {
+        this.classifier = classifier;
+        this.a = a;
+        this.b = b;
+        this.margin = margin;
+    }
+
+    /**
+     * Turn ProbCut on for the given levels. The states to calibrate on are sampled first, if they
+     * are not in dataSets/ yet (this can take a while, but is only done once)
+     * @param levels
+     * @param confidence see CONFIDENCE
+     */
+    public static void enable(int[] levels, double confidence) {
+        for (int level : levels) {
+            int evaluationLevel = getEvaluationLevel(level);
+            if (evaluationLevel == 0) {
+                logger.info("No search is evaluated at least " + MIN_DEPTH + " levels below " +
+                        "level " + level + ". Its states are not cut off");
+                continue;
+            }
+            Instances dataSet = StateClassifier.loadDataSet(
+                    StateClassifier.getCalibrationFile(level));
+            if (dataSet == null) {
+                logger.info("Sampling the states to calibrate ProbCut for level " + level);
+                dataSet = StateClassifier.toInstances(level, StateAnalyzer.createDataset(level,
+                        CALIBRATION_SIZE, evaluationLevel,
+                        StateClassifier.getStateClassifier(evaluationLevel)));
+                StateClassifier.saveDataSet(dataSet, StateClassifier.getCalibrationFile(level));
+            }
+            BoardState[] states = new BoardState[dataSet.numInstances()];
+            byte[] labels = new byte[dataSet.numInstances()];
+            for (int i = 0; i < states.length; i++) {
+                Instance instance = dataSet.instance(i);
+                states[i] = StateClassifier.getState(instance);
+                labels[i] = (byte) instance.value(MAX);
+            }
+            calibrate(level, states, labels, confidence);
+        }
+    }
+
+    /**
+     * Get the level at which the deep score of the states of a level is evaluated: the nearest
+     * level at which the minimax searches that sort the moves are evaluated (see
+     * StateAnalyzer.getMinimaxEvaluationLevels()) that is at least MIN_DEPTH levels deeper
+     * @param level
+     * @return the level or 0, if there is none
+     */
+    static int getEvaluationLevel(int level) {
+        int result = 0;
+        for (int evaluationLevel : StateAnalyzer.getMinimaxEvaluationLevels())
+            if ((evaluationLevel >= level + MIN_DEPTH) &&
+                    ((result == 0) || (evaluationLevel < result)))
+                result = evaluationLevel;
+        return result;
+    }
+
+    /**
+     * Calibrate the prediction for a level and turn ProbCut on for it
+     * @param level
+     * @param states states of the level (not the ones the model of the level was trained on)
+     * @param labels the deep minimax scores of the states
+     * @param confidence see CONFIDENCE
+     */
+    static void calibrate(int level, BoardState[] states, byte[] labels, double confidence) {
+        if (states.length < MIN_SAMPLES) {
+            logger.info("The dataset for level " + level + " is too small. Its states are not " +
+                    "cut off");
+            return;
+        }
+        StateClassifier classifier = StateClassifier.getAvailableClassifier(level);
+        double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+        double[] predictions = new double[states.length];
+        for (int i = 0; i < states.length; i++) {
+            predictions[i] = classifier.classify(states[i]);
+            sumX += predictions[i];
+            sumY += labels[i];
+            sumXX += predictions[i] * predictions[i];
+            sumXY += predictions[i] * labels[i];
+        }
+        int n = states.length;
+        double variance = sumXX - sumX * sumX / n;
+        double a = (variance == 0) ? 0 : (sumXY - sumX * sumY / n) / variance;
+        double b = (sumY - a * sumX) / n;
+        double sumSquares = 0; // sum of the squared residuals
+        for (int i = 0; i < n; i++)
+            sumSquares += Math.pow(labels[i] - (a * predictions[i] + b), 2);
+        double sigma = Math.sqrt(sumSquares / Math.max(1, n - 2));
+        cuts[level - 1] = new ProbCut(classifier, a, b, confidence * sigma);
+        logger.info("ProbCut for level " + level + ": score = " + a + " * prediction + " + b +
+                ", sigma = " + sigma);
+    }
+
+    /**
+     * Turn ProbCut off for all the levels
+     */
+    public static void disable() {
+        for (int i = 0; i < cuts.length; i++)
+            cuts[i] = null;
+    }
+
+    /**
+     * Whether a state can be cut off, i.e. its score is at least a given bound with high
+     * confidence
+     * @param state
+     * @param bound
+     * @return
+     */
+    static boolean isAbove(BoardState state, int bound) {
+        ProbCut cut = cuts[state.getLevel() - 1];
+        if (cut == null)
+            return false;
+        return cut.a * cut.classifier.classify(state) + cut.b - cut.margin >= bound;
+    }
+}
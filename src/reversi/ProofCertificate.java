@@ -0,0 +1,490 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static reversi.BoardState.*;
+import static reversi.Disk.*;
+
+/**
+ * A proof that the result found by the solver is correct, which can be checked much faster than
+ * the game can be solved again. The proof is a tree: in the states in which the player who is
+ * proven to win (the prover) makes a move, the tree contains one move that keeps the result; in
+ * the states in which the other player makes a move, it contains all the moves. The states from
+ * LEAF_LEVEL on are the leaves of the tree and are solved by the verifier itself.
+ *
+ * The certificate only has to store the move of the prover in each of the prover's states (the
+ * rest of the tree follows from the rules). Every record is the key of such a state (see getKey())
+ * and the tile of the move in the orientation restored by BoardState.fromCode(), so the states
+ * that are rotations or reflections of each other are stored once. The records are written as the
+ * tree is traversed, so the certificate is never held in memory. If the result is a truce, the
+ * certificate proves that neither player can win, i.e. it contains two trees (one per player,
+ * proving that the player gets at least a truce).
+ *
+ * File format: MAGIC, DIM, the leaf level, the key of the root and the id of the winner, then the
+ * records (two longs and a byte each), then a trailer (-1, the number of records, -1).
+ */
+public class ProofCertificate {
+
+    private final static Logger logger = Logger.getLogger(ProofCertificate.class);
+    private static final int MAGIC = 0x52505232; // "RPR2"
+    // (the certificates of "RPRF" were written before the codes folded color-swapped twins)
+    public static final byte LEAF_LEVEL = 22;
+    // default level from which the states are solved by the verifier instead of being proven in
+    // the certificate. The lower it is, the smaller the certificate, but the longer the check
+    private static final int FORK_MARGIN = 2;
+    // the verifier checks the children of a state in parallel, unless the state is at most
+    // FORK_MARGIN levels above the leaves
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 16 + 1; // size of the header in bytes
+    private static final int RECORD_SIZE = 16 + 1; // size of a record in bytes
+    private static final int WIN = 1; // outcomes of a state for the prover
+    private static final int TRUCE = 0;
+    private static final int LOSS = -1;
+    private static final int STRIPES = 64;
+    // the states already verified are split between this many tables, each with its own lock
+
+    private final DataOutputStream out; // where the records are written (null when verifying)
+    private final CodeTable moves;
+    // the recorded moves (when writing, all the states of the tree already traversed)
+    private final byte leafLevel;
+    private long records = 0; // number of records written
+    private final CodeTable[] verified = new CodeTable[STRIPES];
+    // the keys (see getKey()) of the states already verified (when verifying) and the results of
+    // the check (1 if the check has passed, 0 otherwise)
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    // whether the verification has failed (the other threads stop as soon as possible)
+
+    /**
+     * A constructor for writing a certificate
+     * @param out
+     * @param leafLevel
+     */
+    private ProofCertificate(DataOutputStream out, byte leafLevel) {
+        this.out = out;
+        this.leafLevel = leafLevel;
+        moves = new CodeTable(1 << 16);
+    }
+
+    /**
+     * A constructor for verifying a certificate
+     * @param moves
+     * @param leafLevel
+     */
+    private ProofCertificate(CodeTable moves, byte leafLevel) {
+        this.out = null;
+        this.leafLevel = leafLevel;
+        this.moves = moves;
+        for (int i = 0; i < STRIPES; i++)
+            verified[i] = new CodeTable(1 << 10);
+    }
+
+    /**
+     * Verify that a certificate proves the result of the game (i.e. of the initial state).
+     * Arguments: the certificate file, then optionally "-threads N" (all the cores by default)
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            logger.error("Usage: ProofCertificate CERTIFICATE_FILE [-threads N]");
+            System.exit(-1);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++)
+            if (args[i].equals("-threads"))
+                threads = Integer.parseInt(args[++i]);
+        long timeStart = System.currentTimeMillis();
+        Disk winner = null;
+        try {
+            winner = verify(args[0], new BoardState(), threads);
+        } catch (IOException e) {
+            logger.error("Could not read the certificate: " + e);
+            System.exit(-1);
+        }
+        if (winner == null) {
+            logger.error("The certificate is NOT valid");
+            System.exit(-1);
+        }
+        logger.info("The certificate is valid: " + ((winner == NONE) ? "truce" : winner + " wins") +
+                ". Checked in " + Main.getDuration(System.currentTimeMillis() - timeStart));
+    }
+
+    /**
+     * Write a certificate for a solved state. The moves of the prover are found with the help of
+     * StateAnalyzer (mostly in its dictionaries, since the state was just solved)
+     * @param root
+     * @param winner the result found by the solver
+     * @param file
+     * @param leafLevel see LEAF_LEVEL
+     * @throws IOException
+     * @throws IllegalStateException if the result turns out to be wrong
+     */
+    public static void write(BoardState root, Disk winner, String file, byte leafLevel)
+            throws IOException {
+        long timeStart = System.currentTimeMillis();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))) {
+            long[] key = getKey(root);
+            out.writeInt(MAGIC);
+            out.writeByte(DIM);
+            out.writeByte(leafLevel);
+            out.writeLong(key[0]);
+            out.writeLong(key[1]);
+            out.writeByte(winner.id);
+            // the trees of the two players are traversed separately, since a state can be in both
+            // of them. The records of the trees do not overlap, since the prover makes the moves
+            // in all of them
+            long records = 0;
+            for (Disk prover : (winner == NONE) ? new Disk[] {WHITE, DARK} : new Disk[] {winner}) {
+                ProofCertificate certificate = new ProofCertificate(out, leafLevel);
+                certificate.prove(root, prover, (winner == NONE) ? TRUCE : WIN);
+                records += certificate.records;
+            }
+            out.writeLong(-1);
+            out.writeLong(records);
+            out.writeByte(-1);
+            logger.info("Certificate with " + records + " moves written to " + file + " in " +
+                    Main.getDuration(System.currentTimeMillis() - timeStart));
+        }
+    }
+
+    /**
+     * Verify a certificate
+     * @param file
+     * @param position the state whose result the certificate has to prove
+     * @param threads
+     * @return the result proven by the certificate or null, if the certificate is not valid (or
+     * it is a proof for another state)
+     * @throws IOException
+     */
+    public static Disk verify(String file, BoardState position, int threads) throws IOException {
+        long size = new File(file).length();
+        if ((size < HEADER_SIZE + RECORD_SIZE) || ((size - HEADER_SIZE) % RECORD_SIZE != 0))
+            throw new IOException("The certificate is truncated");
+        int count = (int) ((size - HEADER_SIZE) / RECORD_SIZE) - 1; // excluding the trailer
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if ((in.readInt() != MAGIC) || (in.readByte() != DIM))
+                throw new IOException("Not a certificate for this board");
+            byte leafLevel = in.readByte();
+            long[] rootKey = {in.readLong(), in.readLong()};
+            if (!Arrays.equals(rootKey, getKey(position))) {
+                logger.error("The certificate is a proof for another state:\n" +
+                        fromKey(rootKey));
+                return null;
+            }
+            BoardState root = fromKey(rootKey);
+            byte winnerId = in.readByte();
+            if ((winnerId < 0) || (winnerId >= Disk.values().length)) {
+                logger.error("The certificate does not name a winner");
+                return null;
+            }
+            Disk winner = Disk.values()[winnerId];
+            CodeTable moves = new CodeTable(count);
+            for (int i = 0; i < count; i++)
+                moves.put(new long[] {in.readLong(), in.readLong()}, in.readByte());
+            if ((in.readLong() != -1) || (in.readLong() != count))
+                throw new IOException("The certificate is truncated");
+            logger.info("Verifying " + count + " moves on " + threads + " threads");
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            boolean valid = true;
+            for (Disk prover : (winner == NONE) ? new Disk[] {WHITE, DARK} : new Disk[] {winner}) {
+                ProofCertificate certificate = new ProofCertificate(moves, leafLevel);
+                valid = valid && pool.invoke(certificate.new Verification(root, prover,
+                        (winner == NONE) ? TRUCE : WIN));
+            }
+            pool.shutdown();
+            return valid ? winner : null;
+        }
+    }
+
+    /**
+     * Write the proof that the prover gets at least a given outcome in a state
+     * @param state
+     * @param prover
+     * @param target WIN or TRUCE
+     * @throws IOException
+     */
+    private void prove(BoardState state, Disk prover, int target) throws IOException {
+        BoardState node = fromKey(getKey(state)); // the orientation of the records
+        if ((node.getLevel() >= leafLevel) || (moves.get(getKey(node)) != CodeTable.MISSING))
+            return;
+        byte[] tiles = node.getMoveTiles(true);
+        if (tiles.length == 0) {
+            BoardState reversed = new BoardState(node);
+            reversed.reverseTurn();
+            if (reversed.getMoveTiles(true).length > 0) // otherwise, the game has finished
+                prove(reversed, prover, target);
+            return;
+        }
+        moves.put(getKey(node), (byte) -1);
+        if (node.getTurn() != prover) { // every move of the other player has to be proven
+            for (byte tile : tiles)
+                prove(node.makeMove(tile), prover, target);
+            return;
+        }
+
+        // the moves already solved are tried first
+        byte tile = -1;
+        for (int i = 0; (i < tiles.length) && (tile == -1); i++) {
+            Disk winner = StateAnalyzer.getFromDict(node.makeMove(tiles[i]));
+            if ((winner != null) && (getOutcome(winner, prover) >= target))
+                tile = tiles[i];
+        }
+        for (int i = 0; (i < tiles.length) && (tile == -1); i++) {
+            Disk winner = new StateAnalyzer(node.makeMove(tiles[i])).analyze();
+            if (getOutcome(winner, prover) >= target)
+                tile = tiles[i];
+        }
+        if (tile == -1)
+            throw new IllegalStateException("No move keeps the result in the state\n" + node);
+        long[] key = getKey(node);
+        moves.put(key, tile);
+        out.writeLong(key[0]);
+        out.writeLong(key[1]);
+        out.writeByte(tile);
+        records += 1;
+        prove(node.makeMove(tile), prover, target);
+    }
+
+    /**
+     * Checks that the prover gets at least a given outcome in a state, according to the
+     * certificate. The moves of the other player are checked in parallel
+     */
+    private class Verification extends RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1L;
+        private final BoardState state;
+        private final Disk prover;
+        private final int target; // WIN or TRUCE
+
+        /**
+         * Default constructor
+         * @param state
+         * @param prover
+         * @param target
+         */
+        Verification(BoardState state, Disk prover, int target) {
+            this.state = state;
+            this.prover = prover;
+            this.target = target;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (failed.get())
+                return false;
+            long[] key = getKey(state);
+            BoardState node = fromKey(key);
+            CodeTable checked = verified[(int) (((key[0] * 0x9E3779B97F4A7C15L) ^ key[1]) >>>
+                    (Long.SIZE - Integer.numberOfTrailingZeros(STRIPES)))];
+            byte known;
+            synchronized (checked) {
+                known = checked.get(key);
+            }
+            if (known != CodeTable.MISSING)
+                return known == 1;
+            boolean result = check(node);
+            synchronized (checked) {
+                checked.put(key, (byte) (result ? 1 : 0));
+            }
+            if (!result && failed.compareAndSet(false, true))
+                logger.error("The certificate does not prove that " + prover + " gets " +
+                        ((target == WIN) ? "a victory" : "at least a truce") + " in\n" + node);
+            return result;
+        }
+
+        /**
+         * Check a state in the orientation of the records
+         * @param node
+         * @return
+         */
+        private boolean check(BoardState node) {
+            if (node.getLevel() >= leafLevel)
+                return getOutcome(node, prover) >= target;
+            byte[] tiles = node.getMoveTiles(true);
+            if (tiles.length == 0) {
+                BoardState reversed = new BoardState(node);
+                reversed.reverseTurn();
+                if (reversed.getMoveTiles(true).length == 0) // the game has finished
+                    return getOutcome(node, prover) >= target;
+                return new Verification(reversed, prover, target).compute();
+            }
+            if (node.getTurn() == prover) {
+                byte tile = moves.get(getKey(node));
+                BoardState move = ((tile < 0) || (tile >= MAX)) ? null : node.makeMove(tile);
+                if (move == null) // the move is missing, out of the board or illegal
+                    return false;
+                return new Verification(move, prover, target).compute();
+            }
+            ArrayList<Verification> children = new ArrayList<>(tiles.length);
+            for (byte tile : tiles)
+                children.add(new Verification(node.makeMove(tile), prover, target));
+            if (node.getLevel() + FORK_MARGIN >= leafLevel) {
+                for (Verification child : children)
+                    if (!child.compute())
+                        return false;
+                return true;
+            }
+            for (Verification child : invokeAll(children))
+                if (!child.join())
+                    return false;
+            return true;
+        }
+    }
+
+    /**
+     * Get the key of a state in the certificate: its code (see BoardState.getCode()) with the last
+     * long doubled and increased by one if the code was taken from the color-swapped twin. The
+     * prover is a color, so the certificate has to tell a state and its twin apart
+     * @param state
+     * @return
+     */
+    private static long[] getKey(BoardState state) {
+        long[] code = state.getCode();
+        return new long[] {code[0], code[1] * 2 + (state.isColorSwapped() ? 1 : 0)};
+    }
+
+    /**
+     * Restore a state from its key (see getKey()) in the orientation of its code and in its own
+     * colors
+     * @param key
+     * @return
+     */
+    private static BoardState fromKey(long[] key) {
+        return BoardState.fromCode(new long[] {key[0], key[1] / 2}, key[1] % 2 == 1);
+    }
+
+    /**
+     * Get the outcome of a state for a player by solving it with a plain alpha-beta search. The
+     * verifier does not use StateAnalyzer, so that the check is independent of the solver
+     * @param state
+     * @param player
+     * @return WIN, TRUCE or LOSS
+     */
+    private static int getOutcome(BoardState state, Disk player) {
+        int outcome = solve(state, LOSS, WIN);
+        return (state.getTurn() == player) ? outcome : -outcome;
+    }
+
+    /**
+     * Get the outcome of a result for a player
+     * @param winner
+     * @param player
+     * @return WIN, TRUCE or LOSS
+     */
+    private static int getOutcome(Disk winner, Disk player) {
+        return (winner == player) ? WIN : ((winner == NONE) ? TRUCE : LOSS);
+    }
+
+    /**
+     * Alpha-beta search on the outcomes (WIN, TRUCE or LOSS)
+     * @param state
+     * @param alpha
+     * @param beta
+     * @return the outcome for the player to make a move
+     */
+    private static int solve(BoardState state, int alpha, int beta) {
+        ArrayList<BoardState> moves = state.getMoves(true);
+        if (moves.isEmpty()) {
+            BoardState reversed = new BoardState(state);
+            reversed.reverseTurn();
+            if (reversed.getMoves(false).isEmpty()) // the game has finished
+                return Integer.signum(state.getScoreDifference());
+            return -solve(reversed, -beta, -alpha);
+        }
+        int best = LOSS;
+        for (BoardState move : moves) {
+            best = Math.max(best, -solve(move, -beta, -Math.max(alpha, best)));
+            if (best >= beta)
+                break;
+        }
+        return best;
+    }
+
+    /**
+     * An open-addressing hash table from codes (see BoardState.getCode()) to tiles. It takes much
+     * less memory than a HashMap of BoardStates, so that large certificates fit in memory
+     */
+    private static class CodeTable {
+
+        static final byte MISSING = -2; // returned for the codes that are not in the table
+
+        private long[] keys; // two longs per entry. The empty entries are {0, 0}
+        private byte[] values;
+        private int size = 0;
+
+        /**
+         * Default constructor
+         * @param capacity expected number of entries
+         */
+        CodeTable(int capacity) {
+            int length = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1;
+            keys = new long[length * 2];
+            values = new byte[length];
+        }
+
+        /**
+         * Get the value stored for a code
+         * @param code
+         * @return the value or MISSING
+         */
+        byte get(long[] code) {
+            for (int i = getIndex(code); ; i = (i + 1) & (values.length - 1)) {
+                if ((keys[2 * i] == 0) && (keys[2 * i + 1] == 0))
+                    return MISSING;
+                if ((keys[2 * i] == code[0]) && (keys[2 * i + 1] == code[1]))
+                    return values[i];
+            }
+        }
+
+        /**
+         * Store a value for a code (replacing the old one, if any)
+         * @param code
+         * @param value
+         */
+        void put(long[] code, byte value) {
+            if (2 * (size + 1) > values.length)
+                grow();
+            int i = getIndex(code);
+            while (((keys[2 * i] != 0) || (keys[2 * i + 1] != 0)) &&
+                    ((keys[2 * i] != code[0]) || (keys[2 * i + 1] != code[1])))
+                i = (i + 1) & (values.length - 1);
+            if ((keys[2 * i] == 0) && (keys[2 * i + 1] == 0))
+                size += 1;
+            keys[2 * i] = code[0];
+            keys[2 * i + 1] = code[1];
+            values[i] = value;
+        }
+
+        /**
+         * Double the capacity of the table
+         */
+        private void grow() {
+            long[] oldKeys = keys;
+            byte[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new byte[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldValues.length; i++)
+                if ((oldKeys[2 * i] != 0) || (oldKeys[2 * i + 1] != 0))
+                    put(new long[] {oldKeys[2 * i], oldKeys[2 * i + 1]}, oldValues[i]);
+        }
+
+        /**
+         * Get the first entry at which to look for a code
+         * @param code
+         * @return
+         */
+        private int getIndex(long[] code) {
+            long hash = (code[0] * 0x9E3779B97F4A7C15L) ^ code[1];
+            hash ^= hash >>> 29;
+            return (int) (hash & (values.length - 1));
+        }
+    }
+}
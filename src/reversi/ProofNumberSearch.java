@@ -0,0 +1,288 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Random;
+import static reversi.BoardState.*;
+import static reversi.Disk.*;
+
+/**
+ * An alternative to StateAnalyzer.analyze() that uses depth-first proof-number search (df-pn).
+ * Instead of relying on move ordering, df-pn always expands the state that is the easiest to
+ * prove or disprove, judging by the proof and disproof numbers of the states seen so far.
+ *
+ * A search answers a yes/no question: can the attacker (the player to make a move at the root)
+ * win, or at least make a truce? The winner is found by asking both questions. Proof and disproof
+ * numbers are stored in a table of a fixed size (colliding entries are simply overwritten).
+ * Starting from dfsLevel, the states are solved with StateAnalyzer.analyze() instead.
+ */
+public class ProofNumberSearch {
+
+    private final static Logger logger = Logger.getLogger(ProofNumberSearch.class);
+    private static final int INFINITY = Integer.MAX_VALUE / 4;
+    // proof number of a disproven state and disproof number of a proven one
+    private static final int TABLE_SIZE = 1 << 20; // default number of entries in the table
+    private static final byte DFS_LEVEL = MAX - 10;
+    // default level from which to switch to StateAnalyzer.analyze()
+
+    private final byte dfsLevel; // level from which to switch to StateAnalyzer.analyze()
+    private final long[][] keys; // keys of the stored states (see getKey())
+    private final int[] proofs; // proof numbers of the stored states
+    private final int[] disproofs; // disproof numbers of the stored states
+    private Disk attacker; // the player whose victory (or truce) the search is trying to prove
+    private boolean truceIsEnough; // whether truce counts as a success for the attacker
+    private long nodes = 0; // number of states expanded by this search (see getNodes())
+
+    /**
+     * Default constructor
+     */
+    public ProofNumberSearch() {
+        this(DFS_LEVEL, TABLE_SIZE);
+    }
+
+    /**
+     * @param dfsLevel level from which to switch to StateAnalyzer.analyze()
+     * @param tableSize number of entries in the table of proof and disproof numbers. Must be a
+     *                  power of 2
+     */
+    public ProofNumberSearch(byte dfsLevel, int tableSize) {
+        this.dfsLevel = dfsLevel;
+        keys = new long[tableSize][];
+        proofs = new int[tableSize];
+        disproofs = new int[tableSize];
+    }
+
+    /**
+     * Compare proof-number search with StateAnalyzer.analyze() on random states of a given level.
+     * Arguments: level, number of states, level from which to switch to StateAnalyzer.analyze()
+     * @param args
+     */
+    public static void main(String[] args) {
+        int level = (args.length > 0) ? Integer.parseInt(args[0]) : 22;
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        byte dfsLevel = (args.length > 2) ? Byte.parseByte(args[2]) : DFS_LEVEL;
+        Random random = new Random(0);
+        StateAnalyzer.useColdStore = false; // see resetDictionaries()
+        for (int i = 0; i < count; i++) {
+            BoardState state = StateAnalyzer.getRandomState(level, random);
+            if (state == null) {
+                i--;
+                continue;
+            }
+
+            StateAnalyzer.resetDictionaries();
+            long countStart = Main.count;
+            long timeStart = System.currentTimeMillis();
+            Disk dfsWinner = new StateAnalyzer(new BoardState(state)).analyze();
+            long dfsTime = System.currentTimeMillis() - timeStart;
+            long dfsNodes = Main.count - countStart;
+
+            StateAnalyzer.resetDictionaries();
+            ProofNumberSearch search = new ProofNumberSearch(dfsLevel, TABLE_SIZE);
+            countStart = Main.count;
+            timeStart = System.currentTimeMillis();
+            Disk pnWinner = search.analyze(state);
+            long pnTime = System.currentTimeMillis() - timeStart;
+            long pnNodes = search.getNodes() + Main.count - countStart;
+
+            logger.info("State " + i + ": DFS " + dfsWinner + ", " + dfsNodes + " nodes, " +
+                    dfsTime + " ms; PN " + pnWinner + ", " + pnNodes + " nodes, " + pnTime + " ms");
+            if (dfsWinner != pnWinner)
+                logger.error("The results differ for:\n" + state);
+        }
+    }
+
+    /**
+     * Find the winner of a given state
+     * @param state
+     * @return NONE, WHITE or DARK depending on who wins
+     */
+    public Disk analyze(BoardState state) {
+        attacker = state.getTurn();
+        if (prove(state, false))
+            return attacker;
+        if (prove(state, true))
+            return NONE;
+        return getReverse(attacker);
+    }
+
+    /**
+     * Get the number of states expanded by this search. States expanded by
+     * StateAnalyzer.analyze() are not included (see Main.count for those)
+     * @return
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Find out whether the attacker can win (or make a truce) in a given state
+     * @param state
+     * @param truceIsEnough whether truce counts as a success for the attacker
+     * @return
+     */
+    private boolean prove(BoardState state, boolean truceIsEnough) {
+        this.truceIsEnough = truceIsEnough;
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = null;
+        int[] numbers;
+        do { // the root can be overwritten in the table, in which case the search is resumed
+            mid(state, INFINITY, INFINITY);
+            numbers = lookup(state);
+        } while ((numbers[0] != 0) && (numbers[1] != 0));
+        return numbers[0] == 0;
+    }
+
+    /**
+     * Expand a state until its phi or delta reaches the corresponding threshold. Phi and delta
+     * are the proof and the disproof numbers from the point of view of the player to make a move
+     * (i.e. they are swapped in states where the attacker is not the one to make a move)
+     * @param state
+     * @param phiThreshold
+     * @param deltaThreshold
+     */
+    private void mid(BoardState state, int phiThreshold, int deltaThreshold) {
+        nodes += 1;
+        if (state.getLevel() >= dfsLevel) {
+            Disk winner = new StateAnalyzer(new BoardState(state)).analyze();
+            store(state, isSuccess(winner));
+            return;
+        }
+
+        ArrayList<BoardState> children = state.getMoves(true);
+        if (children.size() == 0) { // if no moves can be made, change the player
+            BoardState reversed = new BoardState(state);
+            reversed.reverseTurn();
+            if (reversed.getMoves(false).size() == 0) { // the game has finished
+                store(state, isSuccess(getWinner(state)));
+                return;
+            }
+            children.add(reversed);
+        }
+
+        while (true) {
+            long phiSum = 0; // delta of this state
+            int minDelta = INFINITY; // phi of this state
+            int secondDelta = INFINITY;
+            int bestPhi = INFINITY;
+            BoardState best = null;
+            for (BoardState child : children) {
+                int[] numbers = getPhiDelta(child);
+                phiSum = Math.min(INFINITY, phiSum + numbers[0]);
+                if (numbers[1] < minDelta) {
+                    secondDelta = minDelta;
+                    minDelta = numbers[1];
+                    bestPhi = numbers[0];
+                    best = child;
+                } else if (numbers[1] < secondDelta)
+                    secondDelta = numbers[1];
+            }
+            if ((minDelta >= phiThreshold) || (phiSum >= deltaThreshold)) {
+                storePhiDelta(state, minDelta, (int) phiSum);
+                return;
+            }
+            long childPhiThreshold = deltaThreshold + bestPhi - phiSum;
+            int childDeltaThreshold = Math.min(phiThreshold, secondDelta + 1);
+            mid(best, (int) Math.min(INFINITY, childPhiThreshold), childDeltaThreshold);
+        }
+    }
+
+    /**
+     * Whether the given result of the game is a success for the attacker
+     * @param winner
+     * @return
+     */
+    private boolean isSuccess(Disk winner) {
+        return (winner == attacker) || (truceIsEnough && (winner == NONE));
+    }
+
+    /**
+     * Get the winner of a finished game
+     * @param state
+     * @return
+     */
+    private static Disk getWinner(BoardState state) {
+        if (state.scores[WHITE.id] > state.scores[DARK.id])
+            return WHITE;
+        if (state.scores[DARK.id] > state.scores[WHITE.id])
+            return DARK;
+        return NONE;
+    }
+
+    /**
+     * Get the proof and disproof numbers of a state. States that are not in the table have both
+     * numbers equal to 1
+     * @param state
+     * @return {proof number, disproof number}
+     */
+    private int[] lookup(BoardState state) {
+        long[] key = getKey(state);
+        int i = getIndex(key);
+        if ((keys[i] != null) && (keys[i][0] == key[0]) && (keys[i][1] == key[1]))
+            return new int[] {proofs[i], disproofs[i]};
+        return new int[] {1, 1};
+    }
+
+    /**
+     * Get phi and delta of a state (see mid())
+     * @param state
+     * @return {phi, delta}
+     */
+    private int[] getPhiDelta(BoardState state) {
+        int[] numbers = lookup(state);
+        if (state.getTurn() == attacker)
+            return numbers;
+        return new int[] {numbers[1], numbers[0]};
+    }
+
+    /**
+     * Store phi and delta of a state (see mid())
+     * @param state
+     * @param phi
+     * @param delta
+     */
+    private void storePhiDelta(BoardState state, int phi, int delta) {
+        long[] key = getKey(state);
+        int i = getIndex(key);
+        keys[i] = key;
+        proofs[i] = (state.getTurn() == attacker) ? phi : delta;
+        disproofs[i] = (state.getTurn() == attacker) ? delta : phi;
+    }
+
+    /**
+     * Store a state that was either proven or disproven
+     * @param state
+     * @param proven
+     */
+    private void store(BoardState state, boolean proven) {
+        long[] key = getKey(state);
+        int i = getIndex(key);
+        keys[i] = key;
+        proofs[i] = proven ? 0 : INFINITY;
+        disproofs[i] = proven ? INFINITY : 0;
+    }
+
+    /**
+     * Get the key of a state in the table: its code (see BoardState.getCode()), inverted if the
+     * code was taken from the color-swapped twin. The numbers are stored for the attacker, which is
+     * a color, so a state and its twin have to be told apart
+     * @param state
+     * @return
+     */
+    private static long[] getKey(BoardState state) {
+        long[] code = state.getCode();
+        return state.isColorSwapped() ? new long[] {code[0], ~code[1]} : code;
+    }
+
+    /**
+     * Get the index of the entry of the table that corresponds to a given key
+     * @param code
+     * @return
+     */
+    private int getIndex(long[] code) {
+        long hash = (code[0] * 0x9E3779B97F4A7C15L) ^ code[1];
+        hash ^= hash >>> 29;
+        return (int) (hash & (keys.length - 1));
+    }
+}
@@ -0,0 +1,405 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import static reversi.BoardState.*;
+import static reversi.Disk.*;
+
+/**
+ * An alternative to StateAnalyzer.analyze() that does not keep the game tree in memory. The solver
+ * first enumerates all the unique (up to rotations and reflections) states of each level and
+ * writes them into sorted per-level files. Then it goes backwards, from the last level to the
+ * level of the root, and calculates the winner for every state of a level by joining the states
+ * with the (already known) results of their children. Every pass reads and writes files
+ * sequentially and sorts them in chunks of a bounded size, so the state space does not have to fit
+ * in memory.
+ *
+ * Only states in which the player to make a move can make one are stored in the files. If the
+ * player cannot make a move, the turn is reversed before the state is stored. If neither player can
+ * make a move, the state is terminal and its winner is calculated on the fly.
+ *
+ * A state and its color-swapped twin share a code (see BoardState.getCode()), so the files store
+ * each pair once. The results are stored in the colors of the codes and translated when the
+ * results of the children are joined with their parents.
+ */
+public class RetrogradeSolver {
+
+    private final static Logger logger = Logger.getLogger(RetrogradeSolver.class);
+    private static final String WORK_DIR = "retrograde/";
+    // directory in which to store the per-level files
+    private static final int CHUNK_SIZE = 1 << 21;
+    // number of records sorted in memory at once. This is what bounds the memory usage
+    private static final int CODE_WIDTH = 2; // number of longs in a code (see BoardState.getCode())
+
+    private final File dir; // directory in which to store the per-level files
+
+    /**
+     * Default constructor
+     * @param dir directory in which to store the per-level files
+     */
+    public RetrogradeSolver(String dir) {
+        this.dir = new File(dir);
+        if (!this.dir.exists() && !this.dir.mkdirs())
+            logger.warn("Could not create " + dir);
+    }
+
+    /**
+     * Solve the initial state of the game
+     * @param args
+     */
+    public static void main(String[] args) {
+        logger.info("Program launched");
+        Disk winner;
+        try {
+            winner = new RetrogradeSolver(WORK_DIR).solve(new BoardState());
+        } catch (IOException e) {
+            logger.error("Retrograde analysis failed: " + e);
+            System.exit(-1);
+            return;
+        }
+        if (winner == DARK)
+            System.out.println("Dark wins!");
+        else if (winner == WHITE)
+            System.out.println("White wins!");
+        else
+            System.out.println("Truce!");
+    }
+
+    /**
+     * Find the winner of a given state
+     * @param root
+     * @return NONE, WHITE or DARK depending on who wins
+     * @throws IOException
+     */
+    public Disk solve(BoardState root) throws IOException {
+        if (normalize(root) == null)
+            return getWinner(root);
+        root = normalize(root);
+        int rootLevel = root.getLevel();
+
+        try (DataOutputStream out = openOutput(getPositionsFile(rootLevel))) {
+            writeRecord(out, root.getCode());
+        }
+        for (int level = rootLevel; level < MAX - 1; level++) {
+            long count = enumerate(level);
+            logger.info("Level " + (level + 1) + ": " + count + " unique states");
+        }
+
+        for (int level = MAX - 1; level >= rootLevel; level--) {
+            propagate(level);
+            logger.info("Level " + level + " solved");
+        }
+
+        try (DataInputStream in = openInput(getResultsFile(rootLevel))) {
+            long[] record = new long[CODE_WIDTH + 1];
+            readRecord(in, record);
+            return root.translateColor(toDisk(record[CODE_WIDTH]));
+        }
+    }
+
+    /**
+     * Create the sorted file with all the unique states of level + 1 that can be reached from the
+     * states of the given level
+     * @param level
+     * @return the number of states written
+     * @throws IOException
+     */
+    private long enumerate(int level) throws IOException {
+        File children = new File(dir, "children_" + (level + 1) + ".tmp");
+        try (DataInputStream in = openInput(getPositionsFile(level));
+             DataOutputStream out = openOutput(children)) {
+            long[] code = new long[CODE_WIDTH];
+            while (readRecord(in, code))
+                for (BoardState child : BoardState.fromCode(code).getMoves(false)) {
+                    child = normalize(child);
+                    if (child != null)
+                        writeRecord(out, child.getCode());
+                }
+        }
+        long count = sort(children, getPositionsFile(level + 1), CODE_WIDTH, CODE_WIDTH, true);
+        deleteFile(children);
+        return count;
+    }
+
+    /**
+     * Calculate the winner of every state of the given level using the results for level + 1.
+     * The children of every state are joined with their results by code. The results are then
+     * grouped by the index of the parent state.
+     * @param level
+     * @throws IOException
+     */
+    private void propagate(int level) throws IOException {
+        File pairs = new File(dir, "pairs_" + level + ".tmp");
+        // (child code, parent index, 1 if the code was taken from the color-swapped child or 0)
+        File partial = new File(dir, "partial_" + level + ".tmp"); // (parent index, child result)
+        try (DataInputStream in = openInput(getPositionsFile(level));
+             DataOutputStream pairsOut = openOutput(pairs);
+             DataOutputStream partialOut = openOutput(partial)) {
+            long[] code = new long[CODE_WIDTH];
+            long[] pair = new long[CODE_WIDTH + 2];
+            for (long index = 0; readRecord(in, code); index++)
+                for (BoardState child : BoardState.fromCode(code).getMoves(false)) {
+                    BoardState normalized = normalize(child);
+                    if (normalized == null) { // the result of a terminal state is known
+                        writeRecord(partialOut, new long[] {index, getWinner(child).id});
+                        continue;
+                    }
+                    System.arraycopy(normalized.getCode(), 0, pair, 0, CODE_WIDTH);
+                    pair[CODE_WIDTH] = index;
+                    pair[CODE_WIDTH + 1] = normalized.isColorSwapped() ? 1 : 0;
+                    writeRecord(pairsOut, pair);
+                }
+        }
+
+        File sortedPairs = new File(dir, "pairs_" + level + ".sorted.tmp");
+        sort(pairs, sortedPairs, CODE_WIDTH + 2, CODE_WIDTH, false);
+        deleteFile(pairs);
+        if (level + 1 < MAX) {
+            // the children of the states of level MAX - 1 are all terminal
+            try (DataInputStream pairsIn = openInput(sortedPairs);
+                 DataInputStream resultsIn = openInput(getResultsFile(level + 1));
+                 DataOutputStream partialOut = new DataOutputStream(new BufferedOutputStream(
+                         new FileOutputStream(partial, true)))) {
+                long[] pair = new long[CODE_WIDTH + 2];
+                long[] result = new long[CODE_WIDTH + 1];
+                boolean resultRead = readRecord(resultsIn, result);
+                while (readRecord(pairsIn, pair)) {
+                    // both files are sorted by code, so a single pass is enough to join them
+                    while (resultRead && compare(result, pair, CODE_WIDTH) < 0)
+                        resultRead = readRecord(resultsIn, result);
+                    if (!resultRead || compare(result, pair, CODE_WIDTH) != 0)
+                        throw new IOException("No result found for a state of level " +
+                                (level + 1));
+                    Disk winner = toDisk(result[CODE_WIDTH]); // in the colors of the code
+                    if (pair[CODE_WIDTH + 1] == 1)
+                        winner = getReverse(winner);
+                    writeRecord(partialOut, new long[] {pair[CODE_WIDTH], winner.id});
+                }
+            }
+        }
+        deleteFile(sortedPairs);
+
+        File sortedPartial = new File(dir, "partial_" + level + ".sorted.tmp");
+        sort(partial, sortedPartial, 2, 1, false);
+        deleteFile(partial);
+        try (DataInputStream in = openInput(getPositionsFile(level));
+             DataInputStream partialIn = openInput(sortedPartial);
+             DataOutputStream out = openOutput(getResultsFile(level))) {
+            long[] code = new long[CODE_WIDTH];
+            long[] childResult = new long[2];
+            long[] result = new long[CODE_WIDTH + 1];
+            boolean childRead = readRecord(partialIn, childResult);
+            for (long index = 0; readRecord(in, code); index++) {
+                Disk turn = (code[CODE_WIDTH - 1] % 3 == DARK.id) ? DARK : WHITE;
+                boolean victoryPossible = false;
+                boolean trucePossible = false;
+                for (; childRead && childResult[0] == index;
+                     childRead = readRecord(partialIn, childResult)) {
+                    Disk winner = toDisk(childResult[1]);
+                    if (winner == turn)
+                        victoryPossible = true;
+                    else if (winner == NONE)
+                        trucePossible = true;
+                }
+                System.arraycopy(code, 0, result, 0, CODE_WIDTH);
+                result[CODE_WIDTH] = victoryPossible ? turn.id :
+                        (trucePossible ? NONE.id : getReverse(turn).id);
+                writeRecord(out, result);
+            }
+        }
+        deleteFile(sortedPartial);
+    }
+
+    /**
+     * Sort a file of records with an external merge sort. Chunks of at most CHUNK_SIZE records are
+     * sorted in memory and written into separate files, which are then merged
+     * @param input the file to sort
+     * @param output the file to write the sorted records to
+     * @param width number of longs in a record
+     * @param keyWidth number of leading longs in a record by which the records are sorted
+     * @param unique if true, only the first of the records with equal keys is kept
+     * @return the number of records written
+     * @throws IOException
+     */
+    private long sort(File input, File output, int width, int keyWidth, boolean unique)
+            throws IOException {
+        Comparator<long[]> comparator = (x, y) -> compare(x, y, keyWidth);
+        ArrayList<File> runs = new ArrayList<>();
+        try (DataInputStream in = openInput(input)) {
+            boolean finished = false;
+            while (!finished) {
+                ArrayList<long[]> chunk = new ArrayList<>();
+                while (chunk.size() < CHUNK_SIZE) {
+                    long[] record = new long[width];
+                    if (!readRecord(in, record)) {
+                        finished = true;
+                        break;
+                    }
+                    chunk.add(record);
+                }
+                if (chunk.size() == 0)
+                    break;
+                chunk.sort(comparator);
+                File run = new File(dir, output.getName() + ".run" + runs.size());
+                try (DataOutputStream out = openOutput(run)) {
+                    for (long[] record : chunk)
+                        writeRecord(out, record);
+                }
+                runs.add(run);
+            }
+        }
+
+        long count = 0;
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(
+                Math.max(1, runs.size()), (x, y) -> comparator.compare(x.record, y.record));
+        try (DataOutputStream out = openOutput(output)) {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run, width);
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            long[] last = null;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (!unique || (last == null) || (compare(last, reader.record, keyWidth) != 0)) {
+                    writeRecord(out, reader.record);
+                    last = reader.record.clone();
+                    count++;
+                }
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+        } finally {
+            for (RunReader reader : queue)
+                reader.close();
+            for (File run : runs)
+                deleteFile(run);
+        }
+        return count;
+    }
+
+    /**
+     * If the player to make a move cannot make one, return a copy of the state with the reversed
+     * turn. If neither player can make a move, return null. Otherwise, return the state itself
+     * @param state
+     * @return
+     */
+    private static BoardState normalize(BoardState state) {
+        if (state.getMoves(false).size() > 0)
+            return state;
+        BoardState result = new BoardState(state);
+        result.reverseTurn();
+        if (result.getMoves(false).size() > 0)
+            return result;
+        return null;
+    }
+
+    /**
+     * Get the winner of a terminal state
+     * @param state
+     * @return
+     */
+    private static Disk getWinner(BoardState state) {
+        if (state.scores[WHITE.id] > state.scores[DARK.id])
+            return WHITE;
+        if (state.scores[DARK.id] > state.scores[WHITE.id])
+            return DARK;
+        return NONE;
+    }
+
+    /**
+     * Convert an id stored in a file back to a Disk
+     * @param id
+     * @return
+     */
+    private static Disk toDisk(long id) {
+        return (id == WHITE.id) ? WHITE : ((id == DARK.id) ? DARK : NONE);
+    }
+
+    /**
+     * Compare the first keyWidth longs of two records
+     * @param x
+     * @param y
+     * @param keyWidth
+     * @return
+     */
+    private static int compare(long[] x, long[] y, int keyWidth) {
+        for (int i = 0; i < keyWidth; i++)
+            if (x[i] != y[i])
+                return Long.compare(x[i], y[i]);
+        return 0;
+    }
+
+    private File getPositionsFile(int level) {
+        return new File(dir, "positions_" + level + ".bin");
+    }
+
+    private File getResultsFile(int level) {
+        return new File(dir, "results_" + level + ".bin");
+    }
+
+    private static DataInputStream openInput(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    private static DataOutputStream openOutput(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    private static void writeRecord(DataOutputStream out, long[] record) throws IOException {
+        for (long value : record)
+            out.writeLong(value);
+    }
+
+    /**
+     * Read a record into a given array
+     * @param in
+     * @param record
+     * @return false if the end of the file was reached
+     * @throws IOException
+     */
+    private static boolean readRecord(DataInputStream in, long[] record) throws IOException {
+        try {
+            for (int i = 0; i < record.length; i++)
+                record[i] = in.readLong();
+        } catch (EOFException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete())
+            logger.warn("Could not delete " + file);
+    }
+
+    /**
+     * Sequentially reads the records of one of the sorted runs during the merge
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        long[] record; // the record read last
+
+        RunReader(File file, int width) throws IOException {
+            in = openInput(file);
+            record = new long[width];
+        }
+
+        boolean next() throws IOException {
+            return readRecord(in, record);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
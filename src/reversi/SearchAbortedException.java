@@ -0,0 +1,17 @@
+package reversi;
+
+/**
+ * Thrown by StateAnalyzer when the search it belongs to has been stopped (see SearchControl)
+ */
+public class SearchAbortedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default constructor. The stack trace is not filled in, since the exception is only used to
+     * unwind the search (and the search can be very deep)
+     */
+    public SearchAbortedException() {
+        super("The search has been stopped", null, false, false);
+    }
+}
@@ -0,0 +1,36 @@
+package reversi;
+
+/**
+ * Allows stopping a search that is running in other threads. Every StateAnalyzer that is given a
+ * SearchControl checks it before analyzing a state (and before expanding a state in the minimax
+ * searches that sort the moves) and, if the search has been stopped, throws
+ * SearchAbortedException. Since the exception unwinds the search without returning any result,
+ * the states that were not fully analyzed are never recorded in the dictionaries.
+ */
+public class SearchControl {
+
+    private volatile boolean stopped = false; // whether the search has to be stopped
+
+    /**
+     * Stop all the analyzers that use this SearchControl
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * A getter
+     * @return
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Throw SearchAbortedException, if the search has been stopped
+     */
+    public void check() {
+        if (stopped)
+            throw new SearchAbortedException();
+    }
+}
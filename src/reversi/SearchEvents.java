@@ -0,0 +1,111 @@
+package reversi;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events emitted by the search. The events are only recorded if a recording
+ * is running (e.g. the program is launched with -XX:StartFlightRecording), and otherwise cost next
+ * to nothing, so they are always on. The events are shown in the "Reversi" category of JDK
+ * Mission Control next to the GC and CPU events of the same recording.
+ */
+public class SearchEvents {
+
+    /**
+     * A subtree analyzed by a separate thread (see StateAnalyzer.multiThreadedAnalyze()) is solved
+     */
+    @Name("reversi.SubtreeSolved")
+    @Label("Subtree Solved")
+    @Category("Reversi")
+    @Description("A subtree analyzed by a separate thread was solved")
+    public static class SubtreeSolved extends Event {
+        @Label("Level")
+        int level;
+
+        @Label("Winner")
+        String winner;
+
+        @Label("Nodes")
+        @Description("Number of states analyzed in the subtree")
+        long nodes;
+    }
+
+    /**
+     * All the threads of a split (see StateAnalyzer.multiThreadedAnalyze()) have finished. The
+     * threads that finish early stay idle until the last one finishes
+     */
+    @Name("reversi.SplitCompleted")
+    @Label("Split Completed")
+    @Category("Reversi")
+    @Description("All the threads analyzing the moves of a state have finished")
+    public static class SplitCompleted extends Event {
+        @Label("Level")
+        int level;
+
+        @Label("Threads")
+        int threads;
+
+        @Label("Total Idle Time")
+        @Description("Sum over the threads of the time between the end of the thread and the end " +
+                "of the last thread")
+        @Timespan(Timespan.NANOSECONDS)
+        long totalIdle;
+
+        @Label("Max Idle Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long maxIdle;
+    }
+
+    /**
+     * A level of StateAnalyzer.coincDict is released, because the dictionary became too large
+     */
+    @Name("reversi.DictionaryReduced")
+    @Label("Dictionary Reduced")
+    @Category("Reversi")
+    @Description("A level of the dictionary of solved states was released to save memory")
+    public static class DictionaryReduced extends Event {
+        @Label("Level")
+        int level;
+
+        @Label("Released States")
+        long states;
+    }
+
+    /**
+     * A model is loaded from the disk (see StateClassifier.getStateClassifier())
+     */
+    @Name("reversi.ModelLoaded")
+    @Label("Model Loaded")
+    @Category("Reversi")
+    public static class ModelLoaded extends Event {
+        @Label("Level")
+        int level;
+
+        @Label("Compact")
+        @Description("Whether the model was loaded in the compact format")
+        boolean compact;
+
+        @Label("Found")
+        @Description("Whether the model was found on the disk")
+        boolean found;
+    }
+
+    /**
+     * The moves of a state are sorted with minimax (see StateAnalyzer.getMoves()). Every minimax
+     * search evaluates a batch of leaves with the classifier
+     */
+    @Name("reversi.MinimaxOrdering")
+    @Label("Minimax Ordering")
+    @Category("Reversi")
+    @Description("The moves of a state were sorted with minimax and a classifier")
+    public static class MinimaxOrdering extends Event {
+        @Label("Level")
+        int level;
+
+        @Label("Evaluation Level")
+        @Description("Level of the leaves evaluated by the classifier")
+        int evaluationLevel;
+
+        @Label("Moves")
+        int moves;
+    }
+}
@@ -0,0 +1,162 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.Properties;
+import static reversi.BoardState.*;
+
+/**
+ * The parameters of the search that depend on the machine (number of cores, memory, cache sizes).
+ * The profile is read once at startup from the properties file given by the system property
+ * reversi.profile (search.properties by default). If there is no such file, the defaults below are
+ * used. The best profile for a machine can be found with SearchTuner.
+ *
+ * The properties are:
+ * minimax - the levels at which to use minimax and the depths of the searches (see
+ * StateAnalyzer.MINIMAX) as "LEVEL:DEPTH,LEVEL:DEPTH";
+ * minimaxEvaluators - the levels at which the minimax searches that create the datasets are
+ * evaluated (see StateClassifier.MINIMAX_EVALUATORS) in the same format;
+ * minimaxLevelsToStore - see StateAnalyzer.MINIMAX_LEVELS_TO_STORE;
+ * multithreadingLevel - see StateAnalyzer.MULTITHREADING_LEVEL;
+ * coincLevel - the initial value of StateAnalyzer.coincLevel;
+ * dictDivisor - the maximum memory divided by MAX and by this number gives the maximum number of
+ * states stored in StateAnalyzer.coincDict.
+ */
+public class SearchProfile {
+
+    private final static Logger logger = Logger.getLogger(SearchProfile.class);
+    public static final String PROFILE_PROPERTY = "reversi.profile";
+    public static final String DEFAULT_FILE = "search.properties";
+    private static final String[][] DEFAULTS = {{"minimax", "5:13,13:7"},
+            {"minimaxEvaluators", "18:25,20:25"}, {"minimaxLevelsToStore", "9"},
+            {"multithreadingLevel", "22"}, {"coincLevel", String.valueOf(MAX - 4)},
+            {"dictDivisor", "16"}};
+    // the values used if there is no profile (or a property is missing)
+    public static final SearchProfile current = load();
+    // the profile used by this run of the program
+
+    public final byte[] minimax; // see the description of the class
+    public final byte[] minimaxEvaluators;
+    public final byte minimaxLevelsToStore;
+    public final byte multithreadingLevel;
+    public final byte coincLevel;
+    public final int dictDivisor;
+    private final Properties properties; // the properties the profile was created from
+
+    /**
+     * Default constructor
+     * @param properties see the description of the class. The missing properties take the
+     *                   default values
+     * @throws IllegalArgumentException if some property is malformed or out of range
+     */
+    public SearchProfile(Properties properties) {
+        this.properties = new Properties();
+        for (String[] property : DEFAULTS)
+            this.properties.setProperty(property[0],
+                    properties.getProperty(property[0], property[1]).trim());
+        try {
+            minimax = parseLevels(this.properties.getProperty("minimax"));
+            minimaxEvaluators = parseLevels(this.properties.getProperty("minimaxEvaluators"));
+            minimaxLevelsToStore = parseLevel("minimaxLevelsToStore");
+            multithreadingLevel = parseLevel("multithreadingLevel");
+            coincLevel = parseLevel("coincLevel");
+            dictDivisor = Integer.parseInt(this.properties.getProperty("dictDivisor"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + e.getMessage());
+        }
+        if (dictDivisor <= 0)
+            throw new IllegalArgumentException("dictDivisor has to be positive");
+    }
+
+    /**
+     * Read the profile of this run (see the description of the class)
+     * @return
+     */
+    private static SearchProfile load() {
+        String file = System.getProperty(PROFILE_PROPERTY, DEFAULT_FILE);
+        Properties properties = new Properties();
+        if (!new File(file).exists()) {
+            if (System.getProperty(PROFILE_PROPERTY) != null) {
+                logger.error("The search profile " + file + " does not exist");
+                System.exit(-1);
+            }
+            return new SearchProfile(properties);
+        }
+        try (Reader reader = new FileReader(file)) {
+            properties.load(reader);
+            SearchProfile profile = new SearchProfile(properties);
+            logger.info("Search profile loaded from " + file + ": " + profile);
+            return profile;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Could not read the search profile " + file + ": " + e.getMessage());
+            System.exit(-1);
+            return null;
+        }
+    }
+
+    /**
+     * Save the profile, so that it can be loaded at startup
+     * @param file
+     * @throws IOException
+     */
+    public void save(String file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            properties.store(writer, "Search profile (see SearchProfile.java)");
+        }
+    }
+
+    /**
+     * Get a copy of the properties of this profile (e.g. to create a modified profile)
+     * @return
+     */
+    public Properties getProperties() {
+        Properties result = new Properties();
+        result.putAll(properties);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (String[] property : DEFAULTS)
+            result.append((result.length() == 0) ? "" : ", ").append(property[0]).append('=')
+                    .append(properties.getProperty(property[0]));
+        return result.toString();
+    }
+
+    /**
+     * Parse a property that is a level
+     * @param name
+     * @return
+     */
+    private byte parseLevel(String name) {
+        int level = Integer.parseInt(properties.getProperty(name));
+        if ((level < 1) || (level > MAX))
+            throw new IllegalArgumentException(name + " has to be between 1 and " + MAX);
+        return (byte) level;
+    }
+
+    /**
+     * Parse a list of levels with their values ("LEVEL:VALUE,LEVEL:VALUE")
+     * @param text
+     * @return an array with the value for each level (level i at index i - 1), 0 for the levels
+     * that are not in the list
+     */
+    private static byte[] parseLevels(String text) {
+        byte[] result = new byte[MAX];
+        if (text.isEmpty())
+            return result;
+        for (String pair : text.split(",")) {
+            String[] values = pair.trim().split(":");
+            if (values.length != 2)
+                throw new IllegalArgumentException("Expected LEVEL:VALUE, got " + pair);
+            int level = Integer.parseInt(values[0].trim());
+            int value = Integer.parseInt(values[1].trim());
+            if ((level < 1) || (level > MAX) || (value < 0) || (value > MAX))
+                throw new IllegalArgumentException("Out of range: " + pair);
+            result[level - 1] = (byte) value;
+        }
+        return result;
+    }
+}
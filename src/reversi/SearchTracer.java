@@ -0,0 +1,204 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the states analyzed by StateAnalyzer as compact binary events. Each thread writes
+ * events into its own buffer. Full buffers are handed over to a background thread that writes
+ * them to TRACE_FILE, so the search never waits for the disk (if the writer falls behind, the
+ * buffers are dropped and counted instead). Run the main of this class to print a trace file in a
+ * human-readable form.
+ *
+ * Every event consists of EVENT_WIDTH longs: two longs of the code of the state (see
+ * BoardState.getCode()), the kind, level and result (in the colors of the code, so that it matches
+ * the board restored by BoardState.fromCode()) packed into one long, the value of Main.count and
+ * the time in nanoseconds (System.nanoTime()).
+ */
+public class SearchTracer {
+
+    private final static Logger logger = Logger.getLogger(SearchTracer.class);
+    public static final byte STARTED = 0; // the analysis of a state has started
+    public static final byte SOLVED = 1; // the winner of a state has been found
+    private static final byte TRACE_LEVEL = 13;
+    // The level up to which to trace analyzed states of the board.
+    // Level is the number of disks already on the board - see BoardState class
+    private static final int SAMPLE_RATE = 1;
+    // Only every SAMPLE_RATE-th event of a thread (among those that pass the level filter) is
+    // recorded
+    private static final String TRACE_FILE = "trace.bin"; // file to write the events to
+    private static final int EVENT_WIDTH = 5; // number of longs in an event
+    private static final int BUFFER_SIZE = 1 << 10; // number of events in a buffer
+    private static final int QUEUE_SIZE = 64;
+    // maximum number of full buffers waiting to be written
+
+    private static final BlockingQueue<long[]> fullBuffers = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final BlockingQueue<long[]> freeBuffers = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+    private static final AtomicLong dropped = new AtomicLong(); // number of dropped events
+    private static final long[] POISON = new long[0]; // tells the writer to stop
+    private static volatile Thread writer = null; // the background thread writing the buffers
+    private static volatile boolean enabled = true;
+
+    /**
+     * Print the events of a trace file. The states are printed as boards
+     * @param args the name of the trace file (TRACE_FILE by default)
+     */
+    public static void main(String[] args) {
+        String file = (args.length > 0) ? args[0] : TRACE_FILE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1 << 16))) {
+            long[] event = new long[EVENT_WIDTH];
+            long timeStart = -1;
+            while (true) {
+                try {
+                    for (int i = 0; i < EVENT_WIDTH; i++)
+                        event[i] = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (timeStart == -1)
+                    timeStart = event[4];
+                byte kind = (byte) (event[2] >> 16);
+                byte level = (byte) event[2];
+                byte result = (byte) (event[2] >> 8);
+                System.out.println(((kind == STARTED) ? "Started" : "Solved") + " level " +
+                        level + ((kind == SOLVED) ? ", winner " + Disk.values()[result] : "") +
+                        ", after " + event[3] + " states, at " + (event[4] - timeStart) / 1000000 +
+                        " ms\n" + BoardState.fromCode(new long[] {event[0], event[1]}));
+            }
+        } catch (IOException e) {
+            logger.error("Could not read " + file);
+        }
+    }
+
+    /**
+     * Record an event if the level of the state passes the filter
+     * @param kind STARTED or SOLVED
+     * @param state
+     * @param result the winner, if kind is SOLVED (null otherwise)
+     */
+    public static void record(byte kind, BoardState state, Disk result) {
+        int level = state.getLevel();
+        if (!enabled || (level > TRACE_LEVEL))
+            return;
+        if (writer == null)
+            start();
+        Buffer buffer = buffers.get();
+        if ((SAMPLE_RATE > 1) && (buffer.seen++ % SAMPLE_RATE != 0))
+            return;
+        long[] code = state.getCode();
+        long[] events = buffer.events;
+        int i = buffer.size * EVENT_WIDTH;
+        events[i] = code[0];
+        events[i + 1] = code[1];
+        result = state.translateColor(result);
+        events[i + 2] = (kind << 16) | (((result == null) ? Disk.NONE.id : result.id) << 8) | level;
+        events[i + 3] = Main.count;
+        events[i + 4] = System.nanoTime();
+        buffer.size += 1;
+        if (buffer.size == BUFFER_SIZE)
+            flush();
+    }
+
+    /**
+     * Open TRACE_FILE and start the writer. The file is only opened once the first event is
+     * recorded, so that reading a trace does not overwrite it
+     */
+    private static synchronized void start() {
+        if ((writer != null) || !enabled)
+            return;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(TRACE_FILE), 1 << 16));
+            Thread thread = new Thread(() -> write(out), "SearchTracer");
+            thread.setDaemon(true);
+            thread.start();
+            writer = thread;
+            Runtime.getRuntime().addShutdownHook(new Thread(SearchTracer::close));
+        } catch (IOException e) {
+            logger.warn("Could not open " + TRACE_FILE + ". Tracing is disabled");
+            enabled = false;
+        }
+    }
+
+    /**
+     * Hand the events recorded by the current thread over to the writer. Has to be called before
+     * a thread that recorded events finishes
+     */
+    public static void flush() {
+        Buffer buffer = buffers.get();
+        if (buffer.size == 0)
+            return;
+        long[] events = buffer.events;
+        if (buffer.size < BUFFER_SIZE) // the writer determines the number of events by the length
+            events = Arrays.copyOf(events, buffer.size * EVENT_WIDTH);
+        if (!fullBuffers.offer(events))
+            dropped.addAndGet(buffer.size);
+        if (events == buffer.events) {
+            long[] free = freeBuffers.poll();
+            buffer.events = (free != null) ? free : new long[BUFFER_SIZE * EVENT_WIDTH];
+        }
+        buffer.size = 0;
+    }
+
+    /**
+     * Write all the remaining events of the current thread and stop the writer
+     */
+    public static synchronized void close() {
+        if (!enabled || (writer == null))
+            return;
+        flush();
+        enabled = false;
+        try {
+            if (writer.isAlive()) {
+                fullBuffers.put(POISON);
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while writing " + TRACE_FILE);
+        }
+        if (dropped.get() > 0)
+            logger.warn(dropped.get() + " trace events were dropped");
+    }
+
+    /**
+     * The loop of the writer thread
+     * @param out
+     */
+    private static void write(DataOutputStream out) {
+        try {
+            while (true) {
+                long[] events = fullBuffers.take();
+                if (events == POISON)
+                    break;
+                for (long value : events)
+                    out.writeLong(value);
+                if (events.length == BUFFER_SIZE * EVENT_WIDTH)
+                    freeBuffers.offer(events);
+            }
+        } catch (IOException | InterruptedException e) {
+            logger.error("Writing " + TRACE_FILE + " failed");
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("Could not close " + TRACE_FILE);
+            }
+        }
+    }
+
+    /**
+     * Events recorded by one thread
+     */
+    private static class Buffer {
+        long[] events = new long[BUFFER_SIZE * EVENT_WIDTH];
+        int size = 0; // number of events in the buffer
+        long seen = 0; // number of events seen by this thread (used for sampling)
+    }
+}
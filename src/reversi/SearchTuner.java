@@ -0,0 +1,254 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import static reversi.BoardState.*;
+
+/**
+ * Finds the best search profile (see SearchProfile) for this machine. A fixed sample of random
+ * states of a given level is solved under different candidate profiles, and the wall time is
+ * measured. Since the profile is read once at startup, each measurement is done in a separate JVM
+ * (with the same JVM options as the tuner, so that the memory limit is the same).
+ *
+ * The candidates are picked at random from CANDIDATE_VALUES (the current profile is always one of
+ * them) and compared with successive halving: in the first round, every candidate solves only a
+ * few states, and the slower half is dropped. Every next round, the number of states is doubled,
+ * until one candidate is left. A candidate that takes TIMEOUT_FACTOR times longer than the best
+ * one in its round is stopped early and dropped.
+ */
+public class SearchTuner {
+
+    private final static Logger logger = Logger.getLogger(SearchTuner.class);
+    private static final String[][] CANDIDATE_VALUES = {
+            {"minimax", "5:11,13:5", "5:11,13:7", "5:13,13:5", "5:13,13:7", "5:13,13:9",
+                    "5:15,13:7", "5:15,13:9"},
+            {"minimaxLevelsToStore", "7", "9", "11"},
+            {"multithreadingLevel", "20", "21", "22", "23", "24"},
+            {"coincLevel", String.valueOf(MAX - 6), String.valueOf(MAX - 4),
+                    String.valueOf(MAX - 2)},
+            {"dictDivisor", "8", "16", "32"}};
+    // the values from which the candidate profiles are made up
+    private static final int LEVEL = 18; // default level of the states to solve
+    private static final int POSITIONS = 16; // default number of states to solve in the last round
+    private static final int CANDIDATES = 16; // default number of candidate profiles
+    private static final int TIMEOUT_FACTOR = 3;
+    private static final long MIN_TIMEOUT = 30000; // a candidate is never stopped earlier (ms)
+    private static final String MEASURE = "-measure";
+    // the argument that launches the tuner as a measurement of a single profile
+    private static final String RESULT_PREFIX = "Measured: "; // marks the result of a measurement
+
+    /**
+     * Run the tuner. Arguments (all optional): "-level L" (the level of the states to solve),
+     * "-positions N" (the number of states to solve in the last round), "-candidates N", "-seed S"
+     * and "-out FILE" (where to save the best profile, SearchProfile.DEFAULT_FILE by default)
+     * @param args
+     */
+    public static void main(String[] args) {
+        if ((args.length == 3) && args[0].equals(MEASURE)) {
+            measure(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        int level = LEVEL;
+        int positions = POSITIONS;
+        int candidates = CANDIDATES;
+        long seed = System.currentTimeMillis();
+        String output = SearchProfile.DEFAULT_FILE;
+        for (int i = 0; i < args.length; i++)
+            if (args[i].equals("-level"))
+                level = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-positions"))
+                positions = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-candidates"))
+                candidates = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-seed"))
+                seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("-out"))
+                output = args[++i];
+
+        Random random = new Random(seed);
+        SearchProfile best = null;
+        try {
+            File sample = createSample(level, positions, random);
+            best = tune(getCandidates(candidates, random), sample, positions);
+            best.save(output);
+        } catch (IOException e) {
+            logger.error("Tuning failed: " + e);
+            System.exit(-1);
+        }
+        logger.info("The best profile is saved to " + output + ": " + best);
+    }
+
+    /**
+     * Compare the candidates with successive halving (see the description of the class)
+     * @param candidates
+     * @param sample the file with the states to solve
+     * @param positions number of states in the sample
+     * @return the best candidate
+     * @throws IOException
+     */
+    public static SearchProfile tune(ArrayList<SearchProfile> candidates, File sample,
+                                     int positions) throws IOException {
+        int rounds = 0; // number of rounds needed to leave one candidate
+        while ((1 << rounds) < candidates.size())
+            rounds++;
+        int budget = Math.max(1, positions >> Math.max(0, rounds - 1));
+        // number of states to solve in the current round
+        while (candidates.size() > 1) {
+            logger.info(candidates.size() + " candidates left. Solving " + budget + " states");
+            long[] times = new long[candidates.size()];
+            long bestTime = Long.MAX_VALUE;
+            for (int i = 0; i < candidates.size(); i++) {
+                long timeout = (bestTime == Long.MAX_VALUE) ? Long.MAX_VALUE :
+                        Math.max(MIN_TIMEOUT, bestTime * TIMEOUT_FACTOR);
+                long[] result = run(candidates.get(i), sample, budget, timeout);
+                times[i] = (result == null) ? Long.MAX_VALUE : result[1];
+                bestTime = Math.min(bestTime, times[i]);
+                logger.info(candidates.get(i) + ": " + ((result == null) ? "stopped" :
+                        result[1] + " ms, " + result[0] + " states"));
+            }
+            Integer[] order = new Integer[candidates.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, Comparator.comparingLong(i -> times[i]));
+            ArrayList<SearchProfile> survivors = new ArrayList<>();
+            for (int i = 0; i < (order.length + 1) / 2; i++)
+                if ((i == 0) || (times[order[i]] != Long.MAX_VALUE))
+                    survivors.add(candidates.get(order[i]));
+            candidates = survivors;
+            budget = Math.min(positions, budget * 2);
+        }
+        return candidates.get(0);
+    }
+
+    /**
+     * Pick distinct random candidates. The first one is always the current profile
+     * @param count
+     * @param random
+     * @return
+     */
+    private static ArrayList<SearchProfile> getCandidates(int count, Random random) {
+        int combinations = 1;
+        for (String[] values : CANDIDATE_VALUES)
+            combinations *= values.length - 1;
+        ArrayList<SearchProfile> candidates = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        candidates.add(SearchProfile.current);
+        seen.add(SearchProfile.current.toString());
+        while ((candidates.size() < count) && (seen.size() < combinations)) {
+            Properties properties = SearchProfile.current.getProperties();
+            for (String[] values : CANDIDATE_VALUES)
+                properties.setProperty(values[0], values[1 + random.nextInt(values.length - 1)]);
+            SearchProfile candidate = new SearchProfile(properties);
+            if (seen.add(candidate.toString()))
+                candidates.add(candidate);
+        }
+        return candidates;
+    }
+
+    /**
+     * Create the sample of states to solve and save it in the format of BatchSolver
+     * @param level
+     * @param positions
+     * @param random
+     * @return the file with the sample
+     * @throws IOException
+     */
+    private static File createSample(int level, int positions, Random random) throws IOException {
+        File sample = File.createTempFile("tuner", ".bin");
+        sample.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(sample)))) {
+            for (int i = 0; i < positions; ) {
+                BoardState state = StateAnalyzer.getRandomState(level, random);
+                if ((state == null) || state.getMoves(false, false).isEmpty())
+                    continue;
+                long[] code = state.getCode();
+                out.writeLong(code[0]);
+                out.writeLong(code[1]);
+                i++;
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Solve the first states of the sample in a separate JVM that uses a given profile
+     * @param profile
+     * @param sample
+     * @param positions number of states to solve
+     * @param timeout in milliseconds
+     * @return {number of states analyzed, time in ms} or null, if the JVM did not finish in time
+     * @throws IOException
+     */
+    private static long[] run(SearchProfile profile, File sample, int positions, long timeout)
+            throws IOException {
+        File profileFile = File.createTempFile("profile", ".properties");
+        File log = File.createTempFile("tuner", ".log");
+        try {
+            profile.save(profileFile.getPath());
+            ArrayList<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" +
+                    File.separator + "java");
+            for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+                if (!argument.startsWith("-D" + SearchProfile.PROFILE_PROPERTY + "="))
+                    command.add(argument);
+            command.add("-D" + SearchProfile.PROFILE_PROPERTY + "=" + profileFile.getPath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(SearchTuner.class.getName());
+            command.add(MEASURE);
+            command.add(sample.getPath());
+            command.add(String.valueOf(positions));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(log).start();
+            if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                return null;
+            }
+            for (String line : Files.readAllLines(log.toPath())) {
+                int i = line.indexOf(RESULT_PREFIX);
+                if (i == -1)
+                    continue;
+                String[] values = line.substring(i + RESULT_PREFIX.length()).trim().split(" ");
+                return new long[] {Long.parseLong(values[0]), Long.parseLong(values[1])};
+            }
+            throw new IOException("The measurement failed. See " + log.getPath());
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while measuring " + profile);
+        } finally {
+            profileFile.delete();
+            log.delete();
+        }
+    }
+
+    /**
+     * Solve the first states of a sample with the profile of this JVM and report the number of
+     * states analyzed and the time taken
+     * @param sample
+     * @param positions
+     */
+    private static void measure(String sample, int positions) {
+        ArrayList<BoardState> states = null;
+        try {
+            states = BatchSolver.readPositions(sample);
+        } catch (IOException e) {
+            logger.error("Could not read the sample: " + e);
+            System.exit(-1);
+        }
+        StateClassifier.preloadModels(StateAnalyzer.getMinimaxEvaluationLevels());
+        StateAnalyzer.useColdStore = false; // see resetDictionaries()
+        long timeStart = System.currentTimeMillis();
+        for (int i = 0; i < Math.min(positions, states.size()); i++) {
+            // every state is solved from scratch, so that the order of the states does not matter
+            StateAnalyzer.resetDictionaries();
+            new StateAnalyzer(new BoardState(states.get(i))).analyze();
+        }
+        long time = System.currentTimeMillis() - timeStart;
+        System.out.println(RESULT_PREFIX + Main.count + " " + time);
+    }
+}
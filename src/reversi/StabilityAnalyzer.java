@@ -0,0 +1,145 @@
+package reversi;
+
+import static reversi.BoardState.*;
+import static reversi.Disk.*;
+
+/**
+ * A collection of methods that count stable disks, i.e. disks that cannot be flipped until the end
+ * of the game no matter what moves are made. A disk is stable if, along each of the four lines that
+ * go through it (horizontal, vertical and two diagonals), the line is full, or the disk has a
+ * border or a stable disk of the same color as a neighbor. The number of stable disks of a player
+ * is a lower bound on the number of disks this player will have at the end of the game.
+ *
+ * The board is represented as a bitboard (a long where bit r * DIM + c corresponds to the tile in
+ * row r and column c), so the analysis requires DIM <= 8
+ */
+public class StabilityAnalyzer {
+
+    private static final int[][] LINE_DIRS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+    // the 4 directions of lines going through a tile: horizontal, vertical and two diagonals
+    private static final long FULL = (MAX == 64) ? -1L : (1L << MAX) - 1; // all tiles of the board
+    private static final long FIRST_COLUMN = getColumn(0);
+    private static final long LAST_COLUMN = getColumn(DIM - 1);
+    private static final long[] BORDERS = new long[LINE_DIRS.length];
+    // for each direction, the tiles that have a border as a neighbor in that direction (or in the
+    // opposite one)
+    private static final long[][] LINES = new long[LINE_DIRS.length][];
+    // for each direction, the masks of all the lines in that direction
+
+    static {
+        for (int d = 0; d < LINE_DIRS.length; d++) {
+            int dr = LINE_DIRS[d][0], dc = LINE_DIRS[d][1];
+            BORDERS[d] = FULL & ~(shift(FULL, dr, dc) & shift(FULL, -dr, -dc));
+            // a line is traced from each tile that does not have a neighbor in the opposite
+            // direction
+            long starts = FULL & ~shift(FULL, dr, dc);
+            LINES[d] = new long[Long.bitCount(starts)];
+            int k = 0;
+            for (int i = 0; i < MAX; i++) {
+                if ((starts & (1L << i)) == 0)
+                    continue;
+                long line = 0;
+                for (int r = i / DIM, c = i % DIM; (r >= 0) && (r < DIM) && (c >= 0) && (c < DIM);
+                     r += dr, c += dc)
+                    line |= 1L << (r * DIM + c);
+                LINES[d][k++] = line;
+            }
+        }
+    }
+
+    /**
+     * Count the stable disks of both players
+     * @param state
+     * @return an array where result[WHITE.id] and result[DARK.id] are the numbers of stable white
+     * and dark disks
+     */
+    public static byte[] countStable(BoardState state) {
+        long[] disks = getBitboards(state);
+        long occupied = disks[WHITE.id] | disks[DARK.id];
+        long[] anchors = new long[LINE_DIRS.length];
+        // tiles that are stable in a given direction regardless of their neighbors
+        for (int d = 0; d < LINE_DIRS.length; d++) {
+            anchors[d] = BORDERS[d];
+            for (long line : LINES[d])
+                if ((occupied & line) == line)
+                    anchors[d] |= line;
+        }
+
+        byte[] result = new byte[2];
+        for (Disk player : new Disk[] {WHITE, DARK}) {
+            long stable = 0;
+            long previous;
+            do { // stable disks make their neighbors stable, so repeat until nothing changes
+                previous = stable;
+                long candidates = disks[player.id];
+                for (int d = 0; d < LINE_DIRS.length; d++) {
+                    int dr = LINE_DIRS[d][0], dc = LINE_DIRS[d][1];
+                    candidates &= anchors[d] | shift(stable, dr, dc) | shift(stable, -dr, -dc);
+                }
+                stable = candidates;
+            } while (stable != previous);
+            result[player.id] = (byte) Long.bitCount(stable);
+        }
+        return result;
+    }
+
+    /**
+     * If the stable disks of one player already guarantee the victory of that player, return
+     * that player. Otherwise, return null
+     * @param state
+     * @return
+     */
+    public static Disk getDecidedWinner(BoardState state) {
+        byte[] stable = countStable(state);
+        if (stable[WHITE.id] > MAX / 2)
+            return WHITE;
+        if (stable[DARK.id] > MAX / 2)
+            return DARK;
+        return null;
+    }
+
+    /**
+     * Convert the board of a state to two bitboards
+     * @param state
+     * @return an array where result[WHITE.id] and result[DARK.id] are the bitboards of white and
+     * dark disks
+     */
+    static long[] getBitboards(BoardState state) {
+        long[] result = new long[2];
+        byte[][] board = state.getBoard();
+        for (int i = 0; i < DIM; i++)
+            for (int j = 0; j < DIM; j++)
+                if (board[i][j] != NONE.id)
+                    result[board[i][j]] |= 1L << (i * DIM + j);
+        return result;
+    }
+
+    /**
+     * Move every tile of a bitboard by (dr, dc). The tiles that end up outside the board are
+     * discarded
+     * @param bitboard
+     * @param dr number of rows to move by
+     * @param dc number of columns to move by (-1, 0 or 1)
+     * @return
+     */
+    static long shift(long bitboard, int dr, int dc) {
+        if (dc > 0)
+            bitboard &= ~LAST_COLUMN;
+        else if (dc < 0)
+            bitboard &= ~FIRST_COLUMN;
+        int s = dr * DIM + dc;
+        return ((s >= 0) ? bitboard << s : bitboard >>> -s) & FULL;
+    }
+
+    /**
+     * Get the mask of all the tiles in a given column
+     * @param c
+     * @return
+     */
+    private static long getColumn(int c) {
+        long result = 0;
+        for (int r = 0; r < DIM; r++)
+            result |= 1L << (r * DIM + c);
+        return result;
+    }
+}
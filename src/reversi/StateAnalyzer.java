@@ -4,6 +4,11 @@ import java.util.*;
 import static reversi.BoardState.*;
 import static reversi.Disk.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
 
 /**
@@ -15,47 +20,89 @@ import org.apache.log4j.Logger;
 public class StateAnalyzer implements Runnable {
 
     private final static Logger logger = Logger.getLogger(StateAnalyzer.class);
-    private static final byte TRACE_LEVEL = 13;
-    // The level from which to begin to trace analyzed states of the board and print them out.
-    // Level is the number of disks already on the board - see BoardState class
-    private static final byte MINIMAX_LEVELS_TO_STORE = 9;
+    private static final byte MINIMAX_LEVELS_TO_STORE = SearchProfile.current.minimaxLevelsToStore;
     // whenever minimax is used, the program stores minimax value for states that were already seen
     // in a dictionary. However, storing every single seen state would take to much memory, given
     // that this information is only reused during minimax calculation
-    private static final byte[] MINIMAX = {0, 0, 0, 0, 13, 0, 0, 0, 0, 0, 0, 0,
-            7, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-            0, 0};
+    private static final byte[] MINIMAX = SearchProfile.current.minimax.clone();
     // Levels at which to use minimax and how deep (in levels) the minimax calculations should be.
-    private static final byte MULTITHREADING_LEVEL = 22;
+    // By default, 13 at level 5 and 7 at level 13 (see SearchProfile)
+    private static final byte MULTITHREADING_LEVEL = SearchProfile.current.multithreadingLevel;
     // Level from which to start taking advantage of multithreading
+    public static boolean multithreading = true;
+    // Whether to split the analysis into threads at MULTITHREADING_LEVEL. Has to be turned off if
+    // multiple states are analyzed at the same time (see BatchSolver), since the threads of
+    // different states would terminate each other
+    private static final byte PARALLEL_MINIMAX_DEPTH = 7;
+    // Minimax searches at least this deep (in levels) split the moves of their root between the
+    // threads of minimaxPool
+    private static final int MINIMAX_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService minimaxPool = Executors.newFixedThreadPool(
+            MINIMAX_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "minimax");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final byte ETC_LEVEL = MULTITHREADING_LEVEL;
+    // Level up to which the moves are looked up in coincDict before any of them is analyzed
+    // (enhanced transposition cutoff). Deeper in the tree, the subtrees are too small for the
+    // lookups to pay off
+    private static final byte COLD_LEVEL = MULTITHREADING_LEVEL;
+    // Level up to which the states released from coincDict are spilled to coldStore and looked up
+    // there. Deeper in the tree, solving a state again is cheaper than reading it from the disk
+    public static final String COLD_STORE_PROPERTY = "reversi.coldStore";
+    private static final String COLD_STORE_DIR = System.getProperty(COLD_STORE_PROPERTY,
+            "coldStore/");
+    // directory in which to store the states released from coincDict (can be changed with the
+    // system property reversi.coldStore)
+    private static final byte STABILITY_LEVEL = MAX * 2 / 3;
+    // Level from which to look for stable disks that decide the game early. Before that, stable
+    // disks almost never cover more than a half of the board
     private static final int LOG_FQ = (int) Math.pow(2, 26);
     // frequency of the report. Report is printed then count % REPORT_FQ == 0
-    private static final long DICT_MAX_SIZE = Runtime.getRuntime().maxMemory() / MAX / 16;
+    private static final long DICT_MAX_SIZE = Runtime.getRuntime().maxMemory() / MAX /
+            SearchProfile.current.dictDivisor;
     // maximum total number of states that the program will attempt to store in the dictionary.
     // 2 * BoardState.MAX + 10 is the minimum number of bites needed to store an instance of BoardState, 
-    // so I assume the actual memory usage to be at most 8 times as much.
+    // so I assume the actual memory usage to be at most 8 times as much (with the default
+    // dictDivisor of 16, see SearchProfile).
 
-    public static ConcurrentHashMap<BoardState, Disk>[] coincDict = new ConcurrentHashMap[MAX];
+    public static ConcurrentHashMap<BoardState, Disk>[] coincDict = newDictionaries();
     // a list of dictionaries to look up states for which the solution is known (coincidences).
-    // The maps are concurrent, because they could be accessed simultaneously by multiple threads
-    public static byte coincLevel = MAX - 4;
+    // The maps are concurrent, because they could be accessed simultaneously by multiple threads.
+    // A state and its color-swapped twin are the same key (see BoardState.getCode()), so the
+    // winners are stored in the colors of the code (see getFromDict() and putToDict())
+    public static byte coincLevel = SearchProfile.current.coincLevel;
     // The level from which to begin to look up the state inside the coincDict
     // this level can change depending on how much memory the program has
+    public static final ColdStore coldStore = new ColdStore(COLD_STORE_DIR);
+    // the states released from coincDict (see reduceDict())
+    public static boolean useColdStore = true;
+    // Whether to spill the released states to coldStore and look them up there. Has to be turned
+    // off by the tools that compare searches on the same states (see resetDictionaries()), since
+    // the states spilled by one search would be found by the next one
     private static long inTheDict = 0;
     // the number of elements in the coincDictionary. If this value reaches
     // DICT_SIZE_MAX, a whole level is released from the dictionary and the
     // coincLevel is lowered by one
-    private static ConcurrentHashMap<BoardState, Byte>[] minimaxDict = new ConcurrentHashMap[MAX];
+    private static ConcurrentHashMap<BoardState, Byte>[] minimaxDict = newDictionaries();
     // same as coincDict, but for minimax values (which are score estimation, i.e bytes, not Disks)
-    // The maps are concurrent, because they could be accessed simultaneously by multiple threads
-    private static boolean terminateThreads = false; // True, only if a thread
-    // has found a winning solution and all other threads should be terminated
-    private static boolean truceSolutionFound = false; // True, only if a thread has found a
-    // solution leading to a truce
+    // The maps are concurrent, because they could be accessed simultaneously by multiple threads.
+    // The scores are for the player to make a move, so they are the same for color-swapped twins
+    private static boolean terminateThreads = false; // True, only if a thread of a running split
+    // has found a winning solution and all other threads should be terminated (see run())
+    private static boolean truceSolutionFound = false; // True, only if a thread of a running split
+    // has found a solution leading to a truce
     private static int reportsPrinted = 0; // Number of reports printed
-    // The fields below are needed for weka, but are otherwise irrelevant
-    private static Byte lastMinimaxScore = null; // the score predicted by minimax last time
-    // it was executed
+    private static final byte[] killerTiles = new byte[MAX];
+    // For each level, the tile of the move that led to victory the last time. This move is tried
+    // first (see MoveIterator) in other states of the same level. The array is shared by all the
+    // threads, which is fine since it only affects the order of the moves
+    private static final byte[] minimaxKillerTiles = new byte[MAX];
+    // same as killerTiles, but for the moves that led to alpha-beta pruning in minimax
+    private static final ThreadLocal<long[]> threadCount = ThreadLocal.withInitial(() -> new long[1]);
+    // number of states analyzed by the current thread. Unlike Main.count, this is exact when
+    // multiple threads are used (used to count the states in a subtree, see run())
 
 
     static {
@@ -70,14 +117,29 @@ public class StateAnalyzer implements Runnable {
             coincDict[i] = new ConcurrentHashMap<>();
             minimaxDict[i] = new ConcurrentHashMap<>();
         }
+        Arrays.fill(killerTiles, (byte) -1);
+        Arrays.fill(minimaxKillerTiles, (byte) -1);
     }
 
     private BoardState state; // the boardState to be analysed
+    private long timeFinished; // System.nanoTime() at the moment run() has finished
+    private boolean splitThread = false; // whether this analyzes a move of a running split
+    // (see multiThreadedAnalyze())
+    private SearchControl control = null; // allows stopping the search (null, if it cannot be)
+    private AtomicInteger parentBound = null;
+    // If minimax is run in parallel for the moves of a state (see parallelMinimax()), the best
+    // score of that state found so far by any thread (Integer.MIN_VALUE if there is none yet)
+    private int perturbation = 0;
+    // If not 0, the moves of the states up to MULTITHREADING_LEVEL are tried in a different order
+    // (see LazySmpSearch). Different values give different orders
     private Byte minimaxScore = null; // the score assigned to the BoardState by the minimax
     // algorithm. NOTE: Since minimax algorithm is used to predict optimal move,
     // but not to prove what the optimal move is, the minimaxScore can differ from the actual
     // score (which is the goal of this program to calculate). The score is positive, if the current
     // player is expected to win
+    private ConcurrentHashMap<BoardState, Byte>[] minimaxDicts = minimaxDict;
+    // the dictionaries of minimax scores used by the minimax search of this state. These are the
+    // ones of minimaxDict, unless the search has dictionaries of its own (see createSample())
 
     /**
      * Default constructor
@@ -87,6 +149,19 @@ public class StateAnalyzer implements Runnable {
         this.state = state;
     }
 
+    /**
+     * A constructor for an analyzer that can be stopped and (optionally) tries the moves in a
+     * different order
+     * @param state
+     * @param control the search stops with SearchAbortedException once control is stopped
+     * @param perturbation see the perturbation field
+     */
+    public StateAnalyzer(BoardState state, SearchControl control, int perturbation) {
+        this.state = state;
+        this.control = control;
+        this.perturbation = perturbation;
+    }
+
 
     /**
      * Traverse the game tree to find a solution
@@ -96,35 +171,72 @@ public class StateAnalyzer implements Runnable {
      * @return NONE, WHITE or DARK depending on who wins
      */
     public Disk analyze(int reverse) {
-        if (terminateThreads) // if one thread has found a move leading to victory,
-            // terminate all threads looking at other moves
-            return NONE;
+        if (terminateThreads) // if one thread has found a move leading to victory, terminate
+            // all threads looking at other moves. Unwinding the search (rather than returning a
+            // result) keeps the unfinished states out of the dictionaries
+            throw new SearchAbortedException();
+        if (control != null)
+            control.check();
 
         Disk solution = getKnownSolution(reverse); // if a solution is already known, return it
         if (solution != null)
             return solution;
 
-        ArrayList<BoardState> moves = getMoves();
+        MoveIterator moves = getMoves();
+        if ((perturbation != 0) && (state.getLevel() <= MULTITHREADING_LEVEL) && (moves.size() > 1))
+            moves.rotate(perturbation + state.getLevel());
         // If no moves can be made, change the player and call itself
-        if ((moves == null) || (moves.size() == 0)) {
+        if (moves.size() == 0) {
             state.reverseTurn();
             return returnResult(analyze(reverse + 1));
         }
 
         updateLogIfNeeded(moves.size());
 
-        if (state.getLevel() == MULTITHREADING_LEVEL) // use multithreading
-            return returnResult(multiThreadedAnalyze(moves));
-
         int level = state.getLevel();
-        // This code is only reached, if level != MULTITHREADING_LEVEL
         boolean trucePossible = false; // whether there is a move that leads to truce
-        for (BoardState move : moves) {
-            Disk winner = new StateAnalyzer(move).analyze();
+        if (level <= ETC_LEVEL) {
+            // Enhanced transposition cutoff: before analyzing any move, look up all of them in
+            // coincDict. A move that is already known to lead to victory decides the state, and
+            // the moves that are already solved do not have to be analyzed
+            ArrayList<BoardState> unknown = new ArrayList<>(moves.size());
+            byte[] unknownTiles = new byte[moves.size()];
+            while (moves.hasNext()) {
+                BoardState move = moves.next();
+                Disk winner = getFromDict(move);
+                if (winner == null) {
+                    unknownTiles[unknown.size()] = moves.getLastTile();
+                    unknown.add(move);
+                    continue;
+                }
+                Main.coincCount[level] += 1;
+                if (winner == state.getTurn()) {
+                    if (moves.getLastTile() != -1)
+                        killerTiles[level - 1] = moves.getLastTile();
+                    return returnResult(state.getTurn());
+                }
+                if (winner == NONE)
+                    trucePossible = true;
+            }
+            moves = new MoveIterator(unknown, Arrays.copyOf(unknownTiles, unknown.size()));
+        }
+
+        if (multithreading && (level == MULTITHREADING_LEVEL)) { // use multithreading
+            Disk winner = multiThreadedAnalyze(moves.toList());
+            return returnResult(((winner == getReverse(state.getTurn())) && trucePossible) ?
+                    NONE : winner);
+        }
+
+        // This code is only reached, if multithreading is not used for this level
+        while (moves.hasNext()) {
+            Disk winner = new StateAnalyzer(moves.next(), control, perturbation).analyze();
             if (level < MULTITHREADING_LEVEL)
                 Main.currBF[level - 1] -= 1; // update brancing factors info
-            if (winner == state.getTurn())
+            if (winner == state.getTurn()) {
+                if (moves.getLastTile() != -1)
+                    killerTiles[level - 1] = moves.getLastTile();
                 return returnResult(state.getTurn());
+            }
             if (winner == NONE)
                 trucePossible = true;
         }
@@ -135,7 +247,8 @@ public class StateAnalyzer implements Runnable {
 
     /**
      * If the solution for the current board state is either known or can be easily calculated,
-     * because this is the terminal state, then return that solution. Otherwise, return null
+     * because this is the terminal state or because one player has more than a half of the board
+     * covered with stable disks, then return that solution. Otherwise, return null
      *
      * @param reverse See analyze for this parameter
      * @return
@@ -151,14 +264,22 @@ public class StateAnalyzer implements Runnable {
             return NONE;
         }
 
-        if (level <= coincLevel) {
+        if ((level <= coincLevel) || (level <= COLD_LEVEL)) {
             // check if the winner for this state was already calculated
-            if (level <= TRACE_LEVEL) // for debug purposes only
-                logger.info("Currently analyzing:\n" + this.state);
-            Disk tmp = coincDict[level - 1].get(state);
-            if (tmp != null) // if the value of this state was calculated before
+            SearchTracer.record(SearchTracer.STARTED, state, null); // for debug purposes only
+            Disk tmp = getFromDict(state);
+            if (tmp != null) { // if the value of this state was calculated before
                 Main.coincCount[level - 1] += 1;
-            return tmp;
+                return tmp;
+            }
+        }
+
+        if (level >= STABILITY_LEVEL) {
+            // check if one player already has enough stable disks to win
+            Disk winner = StabilityAnalyzer.getDecidedWinner(state);
+            if (winner != null)
+                Main.stableCount[level - 1] += 1;
+            return winner;
         }
 
         return null;
@@ -172,6 +293,7 @@ public class StateAnalyzer implements Runnable {
     private void updateLogIfNeeded(int movesSize) {
         int level = state.getLevel();
         Main.count += 1; // update the total number of states analyzed
+        threadCount.get()[0] += 1;
         if ((level <= MULTITHREADING_LEVEL) &&
                 ((Main.count / LOG_FQ) > reportsPrinted)) { // if it is time to print some output
             reportsPrinted = (int) (Main.count / LOG_FQ);
@@ -184,17 +306,26 @@ public class StateAnalyzer implements Runnable {
 
     /**
      * Get all possible moves that can be made from this state. If this is a level at which
-     * MINIMAX has to be used, use minimax to sort the moves by how useful they are
+     * MINIMAX has to be used, use minimax to sort the moves by how useful they are. Otherwise,
+     * the moves are created lazily, starting with the one that led to victory the last time
+     * (see killerTiles)
      * @return
      */
-    private ArrayList<BoardState> getMoves() {
+    private MoveIterator getMoves() {
         int level = state.getLevel();
         if (MINIMAX[level - 1] != 0) {
+            SearchEvents.MinimaxOrdering event = new SearchEvents.MinimaxOrdering();
+            event.begin();
             StateClassifier classifier = StateClassifier.getStateClassifier(MINIMAX[level - 1] + level);
-            return minimax((byte) (MINIMAX[level - 1] + level),
-                    (byte) (level + MINIMAX_LEVELS_TO_STORE), classifier);
+            MoveIterator moves = new MoveIterator(minimax((byte) (MINIMAX[level - 1] + level),
+                    (byte) (level + MINIMAX_LEVELS_TO_STORE), classifier));
+            event.level = level;
+            event.evaluationLevel = MINIMAX[level - 1] + level;
+            event.moves = moves.size();
+            event.commit();
+            return moves;
         } else
-            return state.getMoves(true);
+            return new MoveIterator(state, killerTiles[level - 1]);
     }
 
     /**
@@ -206,9 +337,14 @@ public class StateAnalyzer implements Runnable {
      * @return
      */
     private Disk multiThreadedAnalyze(ArrayList<BoardState> moves) {
+        SearchEvents.SplitCompleted event = new SearchEvents.SplitCompleted();
+        event.begin();
         Thread[] threads = new Thread[moves.size()];
+        StateAnalyzer[] analyzers = new StateAnalyzer[moves.size()];
         for (int i = 0; i < moves.size(); i++) {
-            threads[i] = new Thread(new StateAnalyzer(moves.get(i)));
+            analyzers[i] = new StateAnalyzer(moves.get(i), control, perturbation);
+            analyzers[i].splitThread = true;
+            threads[i] = new Thread(analyzers[i]);
             threads[i].start();
         }
         try {
@@ -218,6 +354,24 @@ public class StateAnalyzer implements Runnable {
             logger.error("An issue with Multithreading. See StateAnalyzer");
             System.exit(-1);
         }
+        if ((control != null) && control.isStopped()) {
+            // some threads were stopped before they could find the result (see run())
+            terminateThreads = false;
+            truceSolutionFound = false;
+            control.check();
+        }
+        if (event.isEnabled()) { // the threads that finished early were idle until the last one
+            long lastFinished = 0;
+            for (StateAnalyzer analyzer : analyzers)
+                lastFinished = Math.max(lastFinished, analyzer.timeFinished);
+            for (StateAnalyzer analyzer : analyzers) {
+                event.totalIdle += lastFinished - analyzer.timeFinished;
+                event.maxIdle = Math.max(event.maxIdle, lastFinished - analyzer.timeFinished);
+            }
+            event.level = state.getLevel();
+            event.threads = threads.length;
+            event.commit();
+        }
         if (terminateThreads) {// if threads were terminated, there is a thread that found a move
             // that guarantees victory for the player that is to make a move right now
             terminateThreads = false;
@@ -242,17 +396,12 @@ public class StateAnalyzer implements Runnable {
         int level = state.getLevel();
         Main.levCount[level - 1] += 1;
         Main.lastTimeUpdated[level - 1] = Main.count;
+        SearchTracer.record(SearchTracer.SOLVED, state, result);
         if (level <= coincLevel) { // record information about who wins in this state
-            coincDict[level - 1].putIfAbsent(state, result);
-            // putIfAbsent has to be used due to concurrency issues
+            putToDict(state, result);
             inTheDict += 1;
-            if ((level <= MULTITHREADING_LEVEL) && (inTheDict > DICT_MAX_SIZE)) {
-                // reduce the size of the dictionary if it is too large
-                logger.info("coincLevel reduced to " + (coincLevel - 1));
-                inTheDict -= coincDict[coincLevel - 1].size();
-                coincDict[coincLevel - 1] = null;
-                coincLevel -= 1;
-            }
+            if ((level <= MULTITHREADING_LEVEL) && (inTheDict > DICT_MAX_SIZE))
+                reduceDict();
         }
         if (MINIMAX[level - 2] < MINIMAX[level - 1]) {
             // If minimax values are calculated at this level
@@ -262,13 +411,103 @@ public class StateAnalyzer implements Runnable {
                 i += 1;
             }
         }
-        if (level == MULTITHREADING_LEVEL + 1) {
-            if (result == getReverse(state.getTurn())) {
-                terminateThreads = true; // if one thread has found a move leading to victory,
-                // terminate all threads looking at other moves
-            } else if (result == NONE) // a solution leading to truce was found
-                truceSolutionFound = true;
-        }
+        return result;
+    }
+
+    /**
+     * Get the winner of a state from coincDict. The dictionary of the level of the state might have
+     * been released (see reduceDict()), in which case the state is looked up in coldStore, if the
+     * level is at most COLD_LEVEL
+     * @param state
+     * @return the winner or null, if the state is not in the dictionary
+     */
+    static Disk getFromDict(BoardState state) {
+        ConcurrentHashMap<BoardState, Disk> dict = coincDict[state.getLevel() - 1];
+        Disk winner;
+        if (dict == null)
+            winner = (useColdStore && (state.getLevel() <= COLD_LEVEL)) ? coldStore.get(state) :
+                    null;
+        else
+            winner = dict.get(state);
+        return state.translateColor(winner); // the winner is stored in the colors of the code
+    }
+
+    /**
+     * Record the winner of a state in coincDict, if the dictionary of its level was not released
+     * @param state
+     * @param winner
+     */
+    private static void putToDict(BoardState state, Disk winner) {
+        ConcurrentHashMap<BoardState, Disk> dict = coincDict[state.getLevel() - 1];
+        if (dict != null) // putIfAbsent has to be used due to concurrency issues
+            dict.putIfAbsent(state, state.translateColor(winner));
+    }
+
+    /**
+     * Release the dictionary of coincLevel and lower coincLevel by one. If coincLevel is at most
+     * COLD_LEVEL, the states of the dictionary are spilled to coldStore
+     */
+    private static synchronized void reduceDict() {
+        if (inTheDict <= DICT_MAX_SIZE) // another thread has already reduced the dictionary
+            return;
+        logger.info("coincLevel reduced to " + (coincLevel - 1));
+        SearchEvents.DictionaryReduced event = new SearchEvents.DictionaryReduced();
+        event.level = coincLevel;
+        event.states = coincDict[coincLevel - 1].size();
+        event.commit();
+        ConcurrentHashMap<BoardState, Disk> released = coincDict[coincLevel - 1];
+        inTheDict -= released.size();
+        coincDict[coincLevel - 1] = null;
+        if (useColdStore && (coincLevel <= COLD_LEVEL))
+            coldStore.spill(coincLevel, released);
+        coincLevel -= 1;
+    }
+
+    /**
+     * Get the levels of the models used by minimax (see MINIMAX)
+     * @return
+     */
+    public static int[] getMinimaxEvaluationLevels() {
+        ArrayList<Integer> levels = new ArrayList<>();
+        for (int level = 1; level <= MAX; level++)
+            if ((MINIMAX[level - 1] != 0) && !levels.contains(MINIMAX[level - 1] + level))
+                levels.add(MINIMAX[level - 1] + level);
+        int[] result = new int[levels.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = levels.get(i);
+        return result;
+    }
+
+    /**
+     * Estimate the score of the state with a minimax search of a given depth. The leaves are
+     * evaluated by the model of their level, if it is available (see
+     * StateClassifier.getAvailableClassifier())
+     * @param depth
+     * @return the estimated score difference (positive if the player to make a move is expected
+     * to win)
+     */
+    byte estimate(int depth) {
+        int level = state.getLevel();
+        int evaluationLevel = Math.min(MAX, level + depth);
+        minimax(evaluationLevel, level, StateClassifier.getAvailableClassifier(evaluationLevel));
+        return getScore();
+    }
+
+    /**
+     * Get the levels of the states that can be cut off by ProbCut in the minimax searches (see
+     * MINIMAX and ProbCut.MIN_DEPTH)
+     * @return
+     */
+    public static int[] getProbCutLevels() {
+        ArrayList<Integer> levels = new ArrayList<>();
+        for (int root = 1; root <= MAX; root++)
+            for (int level = root + 1; level + ProbCut.MIN_DEPTH <= root + MINIMAX[root - 1];
+                 level++)
+                if (!levels.contains(level))
+                    levels.add(level);
+        int[] result = new int[levels.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = levels.get(i);
         return result;
     }
 
@@ -289,7 +528,9 @@ public class StateAnalyzer implements Runnable {
      * @return
      */
     private ArrayList<BoardState> minimax(int maxDepth, int depthInDict, StateClassifier classifier) {
-        return minimax(maxDepth, depthInDict, classifier, null, true, 0);
+        IncrementalEvaluator evaluator = (classifier == null) ? null :
+                classifier.getIncrementalEvaluator(state);
+        return minimax(maxDepth, depthInDict, classifier, evaluator, null, true, 0);
     }
 
     /**
@@ -302,6 +543,8 @@ public class StateAnalyzer implements Runnable {
      *                   the classifier if one is given
      * @param depthInDict The last level for which there is a dictionary where all previously seen
      *                    states are recorded
+     * @param evaluator  An evaluator that represents this state and is used at the leaves instead
+     *                   of the classifier (null, if the classifier has to be used)
      * @param scoreAbove The score that the parent state currently has. This is needed for
      *                   Alpa-beta pruning to work
      * @param sort  whether to sort the resulting states by how likely they are going to lead the
@@ -310,45 +553,83 @@ public class StateAnalyzer implements Runnable {
      * @return
      */
     private ArrayList<BoardState> minimax(int maxDepth, int depthInDict, StateClassifier classifier,
-                                          Byte scoreAbove, boolean sort, int reverse) {
+                                          IncrementalEvaluator evaluator, Byte scoreAbove,
+                                          boolean sort, int reverse) {
         //TODO: Make use of coincDict here
         minimaxScore = null;
         int level = state.getLevel();
         if (reverse == 2)
             return null; // no moves are possible from this state
+        if (control != null)
+            control.check();
 
         if (maxDepth == level) { // if this is a leaf, use classifier to get the value at that leaf
-            if (classifier != null)
-                minimaxScore = classifier.classify(state);
+            if ((evaluator == null) && (classifier == null))
+                return null;
+            // the scores of a classifier that can be replaced while it is used are not cached
+            EvaluationCache cache = ((classifier == null) || classifier.isCacheable()) ?
+                    EvaluationCache.getCache(level) : null;
+            minimaxScore = (cache == null) ? null : cache.get(state);
+            if (minimaxScore == null) {
+                if (evaluator != null)
+                    minimaxScore = evaluator.evaluate(state.getTurn());
+                else
+                    minimaxScore = classifier.classify(state);
+                if (cache != null)
+                    cache.put(state, minimaxScore);
+            }
+            return null;
+        }
+
+        // ProbCut: if the score of this state is predicted to be above the bound with high
+        // confidence, the state is not searched
+        int bound = (parentBound == null) ? Integer.MIN_VALUE : parentBound.get();
+        if (scoreAbove != null)
+            bound = Math.max(bound, scoreAbove);
+        if ((bound != Integer.MIN_VALUE) && (maxDepth - level >= ProbCut.MIN_DEPTH) &&
+                ProbCut.isAbove(state, -bound)) {
+            minimaxScore = (byte) -bound;
             return null;
         }
 
-        // get all the possible moves that can be reached from this state
-        ArrayList<BoardState> moves = state.getMoves(true);
+        // get all the possible moves that can be reached from this state. The boards are only
+        // created when they are reached, so the moves cut off by alpha-beta pruning are never created
+        MoveIterator moves = new MoveIterator(state, minimaxKillerTiles[level - 1]);
         StateAnalyzer[] analyzers = new StateAnalyzer[moves.size()];
-        for (int i = 0; i < moves.size(); i++)
-            analyzers[i] = new StateAnalyzer(moves.get(i));
 
         if (moves.size() == 0) { // if the player to make a move cannot make a move, switch players
             state.reverseTurn();
-            minimax(maxDepth, depthInDict, classifier, null, false, reverse + 1);
+            minimax(maxDepth, depthInDict, classifier, evaluator, null, false, reverse + 1);
             state.reverseTurn();
+            if (minimaxScore != null) // the score was found for the other player
+                minimaxScore = (byte) -minimaxScore;
             return null;
         }
 
-        for (int i = 0; i < moves.size(); i++) { // i is also used to index anayzers
-            BoardState move = moves.get(i);
+        if (sort && (MINIMAX_THREADS > 1) && (moves.size() > 1) &&
+                (maxDepth - level >= PARALLEL_MINIMAX_DEPTH))
+            return parallelMinimax(moves.toList(), maxDepth, depthInDict, classifier);
+
+        for (int i = 0; moves.hasNext(); i++) { // i is also used to index anayzers
+            BoardState move = moves.next();
+            analyzers[i] = new StateAnalyzer(move, control, perturbation);
+            analyzers[i].minimaxDicts = minimaxDicts;
             int currScore;
             Byte dictEntry = null;
             // see if the score for this state was already precalculated
             if (level <= depthInDict)
-                dictEntry = minimaxDict[level - 2].get(move);
+                dictEntry = minimaxDicts[level - 2].get(move);
             if (dictEntry != null)
-                analyzers[i].minimaxScore = minimaxDict[level - 2].get(move);
+                analyzers[i].minimaxScore = minimaxDicts[level - 2].get(move);
             else {
-                analyzers[i].minimax(maxDepth, depthInDict, classifier, minimaxScore, false, 0);
+                if (evaluator != null)
+                    evaluator.apply(state, move);
+                analyzers[i].minimax(maxDepth, depthInDict, classifier, evaluator, minimaxScore,
+                        false, 0);
+                if (evaluator != null)
+                    evaluator.undo(state, move);
                 if (level <= depthInDict)
-                    minimaxDict[level - 2].putIfAbsent(move, analyzers[i].getScore());
+                    minimaxDicts[level - 2].putIfAbsent(move, analyzers[i].getScore());
             }
             currScore = -analyzers[i].getScore();
 
@@ -356,19 +637,86 @@ public class StateAnalyzer implements Runnable {
                 minimaxScore = (byte) currScore; // update the score, if a new best move is found
 
             // Alpha-beta pruning:
-            if ((scoreAbove != null) && (-minimaxScore <= scoreAbove))
+            bound = (parentBound == null) ? Integer.MIN_VALUE : parentBound.get();
+            if (((scoreAbove != null) && (-minimaxScore <= scoreAbove)) ||
+                    (-minimaxScore <= bound)) {
+                minimaxKillerTiles[level - 1] = moves.getLastTile();
                 return null;
+            }
         }
 
-        if (sort) {
-            Arrays.sort(analyzers, Comparator.comparingInt(StateAnalyzer::getScore));
-            moves = new ArrayList<>();
-            for (StateAnalyzer analyzer: analyzers)
-                moves.add(analyzer.state);
-            lastMinimaxScore = (byte) (-analyzers[0].getScore());
+        if (!sort)
+            return null;
+        return sortMoves(analyzers);
+    }
+
+    /**
+     * The root of minimax (see the full version of minimax) for deep searches. The moves are
+     * analyzed in parallel by the threads of minimaxPool. Whenever a thread finds a better score
+     * for this state, the other threads immediately use it for alpha-beta pruning
+     * @param moves all the moves that can be made from this state
+     * @param maxDepth
+     * @param depthInDict
+     * @param classifier
+     * @return the moves sorted by how likely they are going to lead the current player to victory
+     */
+    private ArrayList<BoardState> parallelMinimax(ArrayList<BoardState> moves, int maxDepth,
+                                                  int depthInDict, StateClassifier classifier) {
+        int level = state.getLevel();
+        AtomicInteger bound = new AtomicInteger(Integer.MIN_VALUE);
+        // the best score of this state found so far
+        StateAnalyzer[] analyzers = new StateAnalyzer[moves.size()];
+        ArrayList<Future<?>> futures = new ArrayList<>(moves.size());
+        for (int i = 0; i < moves.size(); i++) {
+            BoardState move = moves.get(i);
+            StateAnalyzer analyzer = new StateAnalyzer(move, control, perturbation);
+            analyzer.minimaxDicts = minimaxDicts;
+            analyzers[i] = analyzer;
+            futures.add(minimaxPool.submit(() -> {
+                Byte dictEntry = null;
+                // see if the score for this state was already precalculated
+                if (level <= depthInDict)
+                    dictEntry = minimaxDicts[level - 2].get(move);
+                if (dictEntry != null)
+                    analyzer.minimaxScore = dictEntry;
+                else {
+                    // evaluators are not thread-safe, so each thread needs its own
+                    IncrementalEvaluator evaluator = (classifier == null) ? null :
+                            classifier.getIncrementalEvaluator(move);
+                    analyzer.parentBound = bound;
+                    analyzer.minimax(maxDepth, depthInDict, classifier, evaluator, null, false, 0);
+                    analyzer.parentBound = null;
+                    if (level <= depthInDict)
+                        minimaxDicts[level - 2].putIfAbsent(move, analyzer.getScore());
+                }
+                bound.accumulateAndGet(-analyzer.getScore(), Math::max);
+            }));
+        }
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            if (e.getCause() instanceof SearchAbortedException) // see SearchControl
+                throw (SearchAbortedException) e.getCause();
+            logger.error("An issue with parallel minimax. See StateAnalyzer: " + e);
+            System.exit(-1);
         }
+        minimaxScore = (byte) bound.get();
+        return sortMoves(analyzers);
+    }
 
-        return moves;
+    /**
+     * Sort the moves analyzed by minimax by their scores (the best move for the player to make a
+     * move first)
+     * @param analyzers the analyzers of the moves
+     * @return
+     */
+    private static ArrayList<BoardState> sortMoves(StateAnalyzer[] analyzers) {
+        Arrays.sort(analyzers, Comparator.comparingInt(StateAnalyzer::getScore));
+        ArrayList<BoardState> sorted = new ArrayList<>(analyzers.length);
+        for (StateAnalyzer analyzer: analyzers)
+            sorted.add(analyzer.state);
+        return sorted;
     }
 
     /**
@@ -407,44 +755,114 @@ public class StateAnalyzer implements Runnable {
                         i * (count - i));
                 logger.info("Time left:" + Main.getDuration(timeLeft));
             }
-            BoardState currState = new BoardState();
-            int currLevel = currState.getLevel();
-            boolean turnFlipped = false;
-            while (currLevel < level) {
-                ArrayList<BoardState> moves = currState.getMoves(false);
-                if (moves.size() == 0) {
-                    if (turnFlipped)
-                        break;
-                    else {
-                        turnFlipped = true;
-                        currState.reverseTurn();
-                        continue;
-                    }
-                } else
-                    turnFlipped = false;
-                currState = moves.get(random.nextInt(moves.size()));
-                currLevel++;
-            }
-            if (level != currLevel)
+            BoardState currState = getRandomState(level, random);
+            if ((currState == null) || currState.getMoves(false, false).isEmpty())
                 continue;
-            if (coincDict[currLevel - 1].get(currState) != null)
+            if (getFromDict(currState) != null)
                 continue;
-            StateAnalyzer analyzer = new StateAnalyzer(currState);
-            analyzer.minimaxScore = null;
-
-            analyzer.minimax(evaluationLevel, level + MINIMAX_LEVELS_TO_STORE, classifier);
-            for (byte j = 0; j < coincDict.length; j++) // clearing minimax dictionaries
-                minimaxDict[j] = new ConcurrentHashMap<>();
             features[i] = currState;
-            labels[i] = lastMinimaxScore;
+            labels[i] = createSample(currState, evaluationLevel, classifier);
             i++;
         }
         return new DataSet(features, labels);
     }
 
+    /**
+     * Get the label of a state for a dataset: the score predicted by a minimax search down to
+     * evaluationLevel. The search has dictionaries of its own, so samples can be created by
+     * multiple threads at once (see TrainingPipeline)
+     * @param state a state in which the player to make a move can make one
+     * @param evaluationLevel level at which to evaluate the leaves in minimax
+     * @param classifier classifier to use to evaluate the leaves
+     * @return the score (positive, if the player to make a move is expected to win)
+     */
+    static byte createSample(BoardState state, int evaluationLevel, StateClassifier classifier) {
+        StateAnalyzer analyzer = new StateAnalyzer(state);
+        analyzer.minimaxDicts = newDictionaries();
+        analyzer.minimax(evaluationLevel, state.getLevel() + MINIMAX_LEVELS_TO_STORE, classifier);
+        return analyzer.getScore();
+    }
+
+    /**
+     * Get a random state of a given level by making random moves starting from the initial state
+     * @param level level of the state to return
+     * @param random
+     * @return the state or null, if the game finished before the level was reached
+     */
+    public static BoardState getRandomState(int level, Random random) {
+        BoardState currState = new BoardState();
+        int currLevel = currState.getLevel();
+        boolean turnFlipped = false;
+        while (currLevel < level) {
+            ArrayList<BoardState> moves = currState.getMoves(false, false);
+            if (moves.size() == 0) {
+                if (turnFlipped)
+                    return null;
+                else {
+                    turnFlipped = true;
+                    currState.reverseTurn();
+                    continue;
+                }
+            } else
+                turnFlipped = false;
+            currState = moves.get(random.nextInt(moves.size()));
+            currLevel++;
+        }
+        return currState;
+    }
+
+    /**
+     * Create an empty dictionary for every level (generic arrays cannot be created directly)
+     * @param <V> the type of the values
+     * @return
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> ConcurrentHashMap<BoardState, V>[] newDictionaries() {
+        ConcurrentHashMap<BoardState, V>[] dictionaries = new ConcurrentHashMap[MAX];
+        for (int i = 0; i < MAX; i++)
+            dictionaries[i] = new ConcurrentHashMap<>();
+        return dictionaries;
+    }
+
+    /**
+     * Forget all the states stored in the dictionaries in memory and restore the initial
+     * coincLevel. This is needed to compare the performance of different searches on the same
+     * states. coldStore is kept (it may hold the states of long runs), so the tools that do this
+     * turn useColdStore off
+     */
+    public static void resetDictionaries() {
+        for (byte i = 0; i < coincDict.length; i++) {
+            coincDict[i] = new ConcurrentHashMap<>();
+            minimaxDict[i] = new ConcurrentHashMap<>();
+        }
+        coincLevel = SearchProfile.current.coincLevel;
+        inTheDict = 0;
+    }
+
     @Override
     public void run() {
-        analyze();
+        SearchEvents.SubtreeSolved event = new SearchEvents.SubtreeSolved();
+        event.begin();
+        long countStart = threadCount.get()[0];
+        Disk turn = state.getTurn(); // analyze() reverses the turn of a state that has to pass
+        Disk winner;
+        try {
+            winner = analyze();
+        } catch (SearchAbortedException e) {
+            winner = null; // the search was stopped (see multiThreadedAnalyze())
+        }
+        if (splitThread) {
+            if (winner == getReverse(turn)) // a move leading to victory was found,
+                terminateThreads = true; // so terminate all threads looking at other moves
+            else if (winner == NONE) // a solution leading to truce was found
+                truceSolutionFound = true;
+        }
+        SearchTracer.flush();
+        event.level = state.getLevel();
+        event.winner = String.valueOf(winner);
+        event.nodes = threadCount.get()[0] - countStart;
+        event.commit();
+        timeFinished = System.nanoTime();
     }
 
     /**
@@ -14,6 +14,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by alexanderfedchin on 12/15/18.
@@ -26,18 +29,21 @@ public class StateClassifier {
     // directory in which to store the datasets
     private static final String MODELS_DIR = "models/";
     // directory in which to store the models
-    private static final byte[] MINIMAX_EVALUATORS = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-            0, 0, 0, 0, 0, 25, 0, 25, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-            0, 0};
+    private static final byte[] MINIMAX_EVALUATORS = SearchProfile.current.minimaxEvaluators;
     // For each level i, this array stores the level at which the minimax launched from level i
-    // should be evaluated. This is used in getDataSet()
-    private static final int DATASET_SIZE = 20000; // default dataSet size
+    // should be evaluated. This is used in getDataSet(). By default, 25 for levels 18 and 20 (see
+    // SearchProfile)
+    static final int DATASET_SIZE = 20000; // default dataSet size
     private static final int TESTING_SET_SIZE = (int) (DATASET_SIZE * 0.1);
     private static StateClassifier[] classifiers = new StateClassifier[MAX];
     // list of classifier for different levels.
     // Level is the number of disks already on the board
     public static ArrayList<Attribute> attributes = new ArrayList(); // required for Weka to work
     private static Instances evaluationSet; // required for Weka to work
+    public static MissingModelPolicy missingModelPolicy = MissingModelPolicy.HEURISTIC;
+    // what to do if a model is requested for the leaves of the search, but there is no such model
+    // on the disk. The models that label the datasets are never replaced with the heuristic (see
+    // getLabelingClassifier())
 
     static {
         Arrays.fill(classifiers, null);
@@ -48,6 +54,11 @@ public class StateClassifier {
     }
 
     private Classifier classifier; // the under-the-hood classifier
+    private CompactModel model = null; // the same classifier in the compact format (if available)
+    private HeuristicEvaluator heuristic = null; // used instead of a model, if there is none
+    private boolean cacheable = true;
+    // whether the scores of this classifier can be stored in EvaluationCache. They cannot, if the
+    // classifier is replaced while it is used (see snapshot())
 
     /**
      * Default constructor
@@ -59,12 +70,42 @@ public class StateClassifier {
         evaluationSet = new Instances("evaluationSet", attributes, 1);
     }
 
+    /**
+     * A constructor for a classifier stored in the compact format (see CompactModel)
+     * @param model
+     */
+    public StateClassifier(CompactModel model) {
+        this.model = model;
+    }
+
+    /**
+     * A constructor for a classifier that evaluates the states with a heuristic instead of a
+     * trained model
+     * @param heuristic
+     */
+    public StateClassifier(HeuristicEvaluator heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Create a classifier from an intermediate model that is going to be replaced by a better one
+     * while the old one is still in use (see TrainingPipeline). The scores of such a classifier
+     * are not cached, since they would outlive the model
+     * @param model
+     * @return
+     */
+    static StateClassifier snapshot(CompactModel model) {
+        StateClassifier classifier = new StateClassifier(model);
+        classifier.cacheable = false;
+        return classifier;
+    }
+
     /**
      * A constructor that creates a classifier from a given trainig set
      * @param dataSet
      */
     public StateClassifier(Instances dataSet) {
-        this(trainWekaClassifier(dataSet));
+        this(new ParallelTrainer(dataSet).train());
     }
 
     /**
@@ -111,45 +152,100 @@ public class StateClassifier {
     public byte classify(BoardState state) {
         //The score returned should be between -MAX, MAX
         //The score returned should be positive if the current player is winning
-        evaluationSet.clear();
-        Instance instance = createInstance(state, null);
-        evaluationSet.add(instance);
-        try {
-            return (byte) Math.round(classifier.classifyInstance(instance));
-        } catch (Exception e) {
-            logger.error("Instance classification failed. Consider terminating the program");
-            return 0;
+        if (model != null)
+            return (byte) Math.round(model.evaluate(getFeatures(state)));
+        if (heuristic != null)
+            return heuristic.evaluate(state);
+        synchronized (StateClassifier.class) { // Weka classifiers are not thread-safe
+            evaluationSet.clear();
+            Instance instance = createInstance(state, null);
+            evaluationSet.add(instance);
+            try {
+                return (byte) Math.round(classifier.classifyInstance(instance));
+            } catch (Exception e) {
+                logger.error("Instance classification failed. Consider terminating the program");
+                return 0;
+            }
         }
     }
 
+    /**
+     * Whether the scores of this classifier can be stored in EvaluationCache (see snapshot())
+     * @return
+     */
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * Create an evaluator that gives the same results as classify(), but updates itself as moves
+     * are made instead of evaluating every board from scratch
+     * @param state the state from which the moves will be made
+     * @return the evaluator or null, if the model is not available in the compact format
+     */
+    public IncrementalEvaluator getIncrementalEvaluator(BoardState state) {
+        if (model == null)
+            return null;
+        return new IncrementalEvaluator(model, state);
+    }
+
     /**
      * Attempt to load a requested model from the disk. If the model is already loaded to memory,
-     * simply return it. If the model is neither in the disk nor in memory, train a
-     * new one. Return the corresponding classifier.
+     * simply return it. If the model is neither in the disk nor in memory, proceed according to
+     * missingModelPolicy (by default, use a heuristic). Return the corresponding classifier.
      * @param level Level of the model (level is the number of disks on the board)
      * @return
      */
     public static StateClassifier getStateClassifier(int level) {
-        if (classifiers[level - 1] != null)
-            return classifiers[level - 1];
-        StateClassifier classifier;
-        logger.info("Attempting to load a pretrained model for level " + level);
-        try {
-            classifier = new StateClassifier((Classifier) SerializationHelper.read(
-                    MODELS_DIR + "Model_level_" + level + ".ser"));
-            logger.info("Model loaded");
+        return getStateClassifier(level, missingModelPolicy);
+    }
+
+    /**
+     * Get the model with which to label the states of a dataset (see createDataset()). A dataset
+     * labeled with the heuristic would silently be trained on, so a missing model is trained
+     * (unless missingModelPolicy is FAIL, in which case the program terminates)
+     * @param level Level of the model
+     * @return
+     */
+    static StateClassifier getLabelingClassifier(int level) {
+        return getStateClassifier(level, (missingModelPolicy == MissingModelPolicy.FAIL) ?
+                MissingModelPolicy.FAIL : MissingModelPolicy.TRAIN);
+    }
+
+    /**
+     * See getStateClassifier(). A heuristic loaded before is only returned, if the policy is
+     * HEURISTIC
+     * @param level
+     * @param policy what to do if there is no model on the disk
+     * @return
+     */
+    private static StateClassifier getStateClassifier(int level, MissingModelPolicy policy) {
+        StateClassifier cached = classifiers[level - 1];
+        if ((cached != null) && ((cached.heuristic == null) ||
+                (policy == MissingModelPolicy.HEURISTIC)))
+            return cached;
+        StateClassifier classifier = loadStateClassifier(level);
+        if (classifier != null) {
             classifiers[level - 1] = classifier;
             return classifiers[level - 1];
-        } catch (Exception e) {
-            logger.info(e.fillInStackTrace() + " Loading failed. Attempting to load a " +
-                    "corresponding dataSet to train a new model");
-            Instances dataSet = getDataset(level);
-            classifier = new StateClassifier(dataSet);
-            logger.info("Model trained. Saving the model");
         }
+        if (policy == MissingModelPolicy.FAIL) {
+            logger.error("There is no model for level " + level + ". Terminating");
+            System.exit(-1);
+        }
+        if (policy == MissingModelPolicy.HEURISTIC) {
+            logger.info("There is no model for level " + level + ". Using the heuristic");
+            classifiers[level - 1] = new StateClassifier(new HeuristicEvaluator());
+            return classifiers[level - 1];
+        }
+        logger.info("Attempting to load a corresponding dataSet to train a new model");
+        Instances dataSet = getDataset(level);
+        classifier = new StateClassifier(dataSet);
+        logger.info("Model trained. Saving the model");
         try {
-            SerializationHelper.write(
-                    MODELS_DIR + "Model_level_" + level + ".ser", classifier.classifier);
+            classifier.model.write(getModelFile(level, true));
+            SerializationHelper.write(getModelFile(level, false),
+                    ParallelTrainer.toWeka(classifier.model, dataSet));
         } catch (Exception e2) {
             logger.warn("Model could not be saved");
         }
@@ -157,6 +253,106 @@ public class StateClassifier {
         return classifiers[level - 1];
     }
 
+    /**
+     * Load a model from the disk. The compact format (see CompactModel) is preferred, since it
+     * loads much faster. If there is only a Weka model, it is loaded and also saved in the compact
+     * format for the next time
+     * @param level Level of the model (level is the number of disks on the board)
+     * @return the classifier or null, if there is no model for this level on the disk
+     */
+    private static StateClassifier loadStateClassifier(int level) {
+        logger.info("Attempting to load a pretrained model for level " + level);
+        SearchEvents.ModelLoaded event = new SearchEvents.ModelLoaded();
+        event.begin();
+        event.level = level;
+        if (new File(getModelFile(level, true)).exists()) {
+            try {
+                StateClassifier classifier = new StateClassifier(
+                        CompactModel.read(getModelFile(level, true)));
+                logger.info("Compact model loaded for level " + level);
+                event.compact = true;
+                event.found = true;
+                event.commit();
+                return classifier;
+            } catch (IOException e) {
+                logger.warn(e + " Loading the compact model failed");
+            }
+        }
+        StateClassifier classifier;
+        try {
+            classifier = new StateClassifier((Classifier) SerializationHelper.read(
+                    getModelFile(level, false)));
+            logger.info("Model loaded for level " + level);
+            event.found = true;
+            event.commit();
+        } catch (Exception e) {
+            logger.info(e.fillInStackTrace() + " Loading failed");
+            event.commit();
+            return null;
+        }
+        try {
+            CompactModel model = CompactModel.fromWeka(
+                    (MultilayerPerceptron) classifier.classifier);
+            model.write(getModelFile(level, true));
+            classifier.model = model;
+        } catch (Exception e) {
+            logger.warn(e + " The model could not be converted to the compact format");
+        }
+        return classifier;
+    }
+
+    /**
+     * Load the models for the given levels in parallel, so that the search does not stop to load
+     * them. The models that are not on the disk are then handled one by one according to
+     * missingModelPolicy
+     * @param levels
+     */
+    public static void preloadModels(int[] levels) {
+        long timeStart = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(levels.length, Runtime.getRuntime().availableProcessors())));
+        for (int level : levels)
+            executor.execute(() -> {
+                if (classifiers[level - 1] == null)
+                    classifiers[level - 1] = loadStateClassifier(level);
+            });
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while loading the models");
+            System.exit(-1);
+        }
+        for (int level : levels) // the models that are missing
+            getStateClassifier(level);
+        logger.info("Models loaded in " + Main.getDuration(System.currentTimeMillis() - timeStart));
+    }
+
+    /**
+     * Get the classifier for a given level, if its model is on the disk, or a classifier that uses
+     * HeuristicEvaluator otherwise. Unlike getStateClassifier(), this never trains a model or
+     * terminates the program, regardless of missingModelPolicy
+     * @param level
+     * @return
+     */
+    public static StateClassifier getAvailableClassifier(int level) {
+        if (new File(getModelFile(level, true)).exists() ||
+                new File(getModelFile(level, false)).exists())
+            return getStateClassifier(level);
+        return new StateClassifier(new HeuristicEvaluator());
+    }
+
+    /**
+     * Get the name of the file in which the model for a given level is stored
+     * @param level
+     * @param compact whether to get the file of the compact model (see CompactModel) or of the
+     *                Weka one
+     * @return
+     */
+    static String getModelFile(int level, boolean compact) {
+        return MODELS_DIR + "Model_level_" + level + (compact ? ".cmp" : ".ser");
+    }
+
     /**
      * Attempt to load a requested dataSet from the disk. If the dataset cannot be loaded, create a
      * new one.
@@ -164,13 +360,25 @@ public class StateClassifier {
      * @return
      */
     public static Instances getDataset(int level) {
+        Instances dataSet = loadDataSet(getDatasetFile(level));
+        if (dataSet != null)
+            return dataSet;
+        logger.info("Loading failed. Creating a new dataset with default configurations");
+        return createDataset(level);
+    }
+
+    /**
+     * Load a dataset from a file
+     * @param filename
+     * @return the dataset or null, if it could not be loaded
+     */
+    static Instances loadDataSet(String filename) {
         SerializedInstancesLoader loader = new SerializedInstancesLoader();
         try {
-            loader.setFile(new File(DATASETS_DIR + "Data_level_" + level + ".ser"));
+            loader.setFile(new File(filename));
             return loader.getDataSet();
         } catch (IOException e) {
-            logger.info("Loading failed. Creating a new dataset with default configurations");
-            return createDataset(level);
+            return null;
         }
     }
 
@@ -186,16 +394,38 @@ public class StateClassifier {
             rawData = StateAnalyzer.createDataset(level, DATASET_SIZE, MAX, null);
         else
             rawData = StateAnalyzer.createDataset(level, DATASET_SIZE, evaluationLevel,
-                    getStateClassifier(evaluationLevel));
+                    getLabelingClassifier(evaluationLevel));
+
+        Instances dataSet = toInstances(level, rawData);
+        saveDataSet(dataSet, getDatasetFile(level));
+        return dataSet;
+    }
 
-        Instances dataSet = new Instances("Data_level" + level, attributes, DATASET_SIZE);
+    /**
+     * Convert the states sampled for a level and their labels to a Weka dataset
+     * @param level
+     * @param rawData
+     * @return
+     */
+    static Instances toInstances(int level, StateAnalyzer.DataSet rawData) {
+        Instances dataSet = new Instances("Data_level" + level, attributes,
+                rawData.instances.length);
         for (int i = 0; i < rawData.instances.length; i++)
             dataSet.add(createInstance(rawData.instances[i], rawData.labels[i]));
         dataSet.setClassIndex(MAX);
-        saveDataSet(dataSet, DATASETS_DIR + "Data_level_" + level + ".ser");
         return dataSet;
     }
 
+    /**
+     * Get the level at which the minimax searches that label the states of a given level are
+     * evaluated (see MINIMAX_EVALUATORS)
+     * @param level
+     * @return the level or 0, if the searches go down to the end of the game
+     */
+    static int getEvaluationLevel(int level) {
+        return MINIMAX_EVALUATORS[level - 1];
+    }
+
     /**
      * Save a dataset to a file
      * @param instances
@@ -234,6 +464,58 @@ public class StateClassifier {
         return instance;
     }
 
+    /**
+     * Get the name of the file in which the dataset for a given level is stored
+     * @param level
+     * @return
+     */
+    static String getDatasetFile(int level) {
+        return DATASETS_DIR + "Data_level_" + level + ".ser";
+    }
+
+    /**
+     * Get the name of the file in which the states used to calibrate ProbCut for a given level are
+     * stored (see ProbCut.enable())
+     * @param level
+     * @return
+     */
+    static String getCalibrationFile(int level) {
+        return DATASETS_DIR + "ProbCut_level_" + level + ".ser";
+    }
+
+    /**
+     * Restore a state from an instance (see createInstance()). The player to make a move is DARK
+     * @param instance
+     * @return
+     */
+    public static BoardState getState(Instance instance) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < MAX; i++) {
+            double value = instance.value(i);
+            text.append((value > 0) ? DARK.name : ((value < 0) ? WHITE.name : NONE.name));
+            if (i % DIM == DIM - 1)
+                text.append('\n');
+        }
+        return BoardState.fromString(text.toString());
+    }
+
+    /**
+     * Convert a BoardState to the inputs of a CompactModel. The values are the same as in
+     * createInstance()
+     * @param state
+     * @return
+     */
+    public static double[] getFeatures(BoardState state) {
+        double[] features = new double[MAX];
+        for (byte i = 0; i < DIM; i++)
+            for (byte j = 0; j < DIM; j++)
+                if (state.getBoard()[i][j] == state.getTurn().id)
+                    features[i * DIM + j] = 1;
+                else if (state.getBoard()[i][j] != NONE.id)
+                    features[i * DIM + j] = -1;
+        return features;
+    }
+
     /**
      * Test a classifier using F-score. Using Area under the ROC curve might be a better way to do
      * evaluate the model, but it is unclear how to calculate probabilities from the score, and
@@ -300,4 +582,13 @@ public class StateClassifier {
         double recall = (double) (tp) / (tp + fn);
         return 2 * (recall * precision) / (recall + precision);
     }
-}
\ No newline at end of file
+
+    /**
+     * What to do if a model is requested, but there is no such model on the disk
+     */
+    public enum MissingModelPolicy {
+        HEURISTIC, // evaluate the states with HeuristicEvaluator
+        TRAIN, // create a dataset (if needed) and train a new model. This can take hours
+        FAIL // terminate the program
+    }
+}
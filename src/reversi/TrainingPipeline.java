@@ -0,0 +1,313 @@
+package reversi;
+
+import org.apache.log4j.Logger;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static reversi.BoardState.*;
+
+/**
+ * Creates the datasets and trains the models for several levels at once. Normally a model is built
+ * in two steps that never overlap: the dataset is created (see StateClassifier.createDataset()) and
+ * then the model is trained on it. Here, each level is a stage of a pipeline. The generator
+ * threads label random states of the level (see StateAnalyzer.createSample()) and push them into
+ * a bounded queue, from which the trainer of the stage takes them in mini-batches (see
+ * ParallelTrainer.trainBatch()). Every SNAPSHOT_INTERVAL samples, the trainer publishes a snapshot
+ * of its model.
+ *
+ * The states of a level are labeled with the model of the level at which their searches are
+ * evaluated (see StateClassifier.getEvaluationLevel()). If that level is a stage of the pipeline
+ * too, the generators of the lower level start as soon as the first snapshot of the higher one is
+ * published and always use the latest one, so the whole chain (25, then 20 and 18 by default)
+ * is built at the same time. The samples labeled with the early snapshots are noisier, so once all
+ * the samples of a level are there, the final model is trained on the whole dataset the same way
+ * ParallelTrainer does it. The datasets and the models are saved to the usual files.
+ */
+public class TrainingPipeline {
+
+    private final static Logger logger = Logger.getLogger(TrainingPipeline.class);
+    private static final int QUEUE_SIZE = 1024;
+    // maximum number of samples waiting for the trainer of a stage. If the trainer falls behind,
+    // the generators wait
+    private static final int BATCH_SIZE = 256; // number of samples in a mini-batch
+    private static final int UPDATES_PER_BATCH = 8;
+    // the trainer makes at most this many updates per BATCH_SIZE new samples. The mini-batches are
+    // drawn from all the samples received so far, so the trainer does not idle while the
+    // generators are slow, but does not overfit to the first samples either
+    private static final int SNAPSHOT_INTERVAL = 1000;
+    // number of new samples after which a snapshot of the model is published
+    private static final int VALIDATION_FQ = 10;
+    // every VALIDATION_FQ-th sample is not trained on, but used to report the error of the
+    // snapshots
+    private static final long WAIT = 100; // how long the threads wait for new work (ms)
+
+    private final ArrayList<Stage> stages = new ArrayList<>(); // the highest level first
+    private final int threads; // number of generator threads
+
+    /**
+     * A level of the pipeline
+     */
+    private static class Stage {
+        final int level;
+        final int evaluationLevel; // see StateClassifier.getEvaluationLevel() (MAX instead of 0)
+        final Stage source; // the stage that trains the model used to label the samples or null
+        final StateClassifier classifier;
+        // the model used to label the samples, if it is not trained by the pipeline (or null, if
+        // the samples are labeled by searching to the end of the game)
+        final int size; // number of samples to create
+        final BlockingQueue<Object[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        // {state, label} pairs waiting for the trainer
+        final AtomicInteger claimed = new AtomicInteger(); // number of samples taken by generators
+        volatile StateClassifier snapshot = null; // the latest model of this stage
+
+        Stage(int level, int evaluationLevel, Stage source, StateClassifier classifier, int size) {
+            this.level = level;
+            this.evaluationLevel = evaluationLevel;
+            this.source = source;
+            this.classifier = classifier;
+            this.size = size;
+        }
+
+        /**
+         * Whether generators can work on this stage, i.e. it needs more samples and the model to
+         * label them with is available
+         * @return
+         */
+        boolean isReady() {
+            return (claimed.get() < size) && ((source == null) || (source.snapshot != null));
+        }
+    }
+
+    /**
+     * Default constructor
+     * @param levels the levels to build models for. The levels at which their samples are
+     *               evaluated are added as well, unless they already have models on the disk
+     * @param size number of samples per level
+     * @param threads number of generator threads
+     */
+    public TrainingPipeline(int[] levels, int size, int threads) {
+        this.threads = threads;
+        TreeMap<Integer, Boolean> requested = new TreeMap<>(); // level -> explicitly requested
+        for (int level : levels)
+            requested.put(level, true);
+        for (int level : levels) {
+            int evaluationLevel = StateClassifier.getEvaluationLevel(level);
+            while ((evaluationLevel != 0) && !requested.containsKey(evaluationLevel) &&
+                    !new File(StateClassifier.getModelFile(evaluationLevel, true)).exists() &&
+                    !new File(StateClassifier.getModelFile(evaluationLevel, false)).exists()) {
+                requested.put(evaluationLevel, false);
+                evaluationLevel = StateClassifier.getEvaluationLevel(evaluationLevel);
+            }
+        }
+        for (int level : requested.descendingKeySet()) { // a source is created before its users
+            int evaluationLevel = StateClassifier.getEvaluationLevel(level);
+            Stage source = null;
+            StateClassifier classifier = null;
+            for (Stage stage : stages)
+                if (stage.level == evaluationLevel)
+                    source = stage;
+            if ((evaluationLevel != 0) && (source == null))
+                classifier = StateClassifier.getLabelingClassifier(evaluationLevel);
+            stages.add(new Stage(level, (evaluationLevel == 0) ? MAX : evaluationLevel, source,
+                    classifier, size));
+            if (!requested.get(level))
+                logger.info("There is no model for level " + level + ". It is added to the " +
+                        "pipeline");
+        }
+    }
+
+    /**
+     * Arguments: the levels to build models for (all the levels that have an evaluation level in
+     * the search profile by default), then optionally "-size N" (number of samples per level) and
+     * "-threads N" (number of generator threads, all the cores by default)
+     * @param args
+     */
+    public static void main(String[] args) {
+        ArrayList<Integer> levels = new ArrayList<>();
+        int size = StateClassifier.DATASET_SIZE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-size"))
+                size = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-threads"))
+                threads = Integer.parseInt(args[++i]);
+            else
+                levels.add(Integer.parseInt(args[i]));
+        }
+        if (levels.isEmpty())
+            for (int level = 1; level <= MAX; level++)
+                if (StateClassifier.getEvaluationLevel(level) != 0)
+                    levels.add(level);
+        if (levels.isEmpty()) {
+            logger.error("Usage: TrainingPipeline [LEVEL...] [-size N] [-threads N]");
+            System.exit(-1);
+        }
+        new TrainingPipeline(levels.stream().mapToInt(Integer::intValue).toArray(), size,
+                threads).run();
+    }
+
+    /**
+     * Build the models of all the stages. Returns once all of them are saved
+     */
+    public void run() {
+        long timeStart = System.currentTimeMillis();
+        ArrayList<Thread> workers = new ArrayList<>();
+        for (Stage stage : stages)
+            workers.add(new Thread(() -> train(stage), "trainer-" + stage.level));
+        for (int i = 0; i < threads; i++) {
+            int seed = i;
+            workers.add(new Thread(() -> generate(seed), "generator-" + i));
+        }
+        for (Thread worker : workers)
+            worker.start();
+        try {
+            for (Thread worker : workers)
+                worker.join();
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while building the models");
+            System.exit(-1);
+        }
+        logger.info("Models built in " + Main.getDuration(System.currentTimeMillis() - timeStart));
+    }
+
+    /**
+     * The work of a generator thread: create samples for the stages that are ready (see
+     * Stage.isReady()), taking turns between them, until no stage needs more samples
+     * @param seed
+     */
+    private void generate(int seed) {
+        Random random = new Random(seed);
+        int next = seed; // the stage to try first (so that the threads are spread between them)
+        while (true) {
+            Stage stage = null;
+            boolean needed = false; // whether any stage still needs samples
+            for (int i = 0; (i < stages.size()) && (stage == null); i++) {
+                Stage candidate = stages.get((next + i) % stages.size());
+                needed |= candidate.claimed.get() < candidate.size;
+                if (candidate.isReady() && (candidate.claimed.incrementAndGet() <= candidate.size))
+                    stage = candidate;
+            }
+            if (stage == null) {
+                if (!needed)
+                    return;
+                sleep(); // the models needed to label the samples are not published yet
+                continue;
+            }
+            next += 1;
+            StateClassifier classifier = (stage.source == null) ? stage.classifier :
+                    stage.source.snapshot;
+            BoardState state;
+            do {
+                state = StateAnalyzer.getRandomState(stage.level, random);
+            } while ((state == null) || state.getMoves(false, false).isEmpty());
+            byte label = StateAnalyzer.createSample(state, stage.evaluationLevel, classifier);
+            try {
+                stage.queue.put(new Object[] {state, label});
+            } catch (InterruptedException e) {
+                logger.error("Interrupted while creating samples for level " + stage.level);
+                System.exit(-1);
+            }
+        }
+    }
+
+    /**
+     * The work of the trainer of a stage: train a model on the samples as they arrive, publish
+     * the snapshots and finally train, save and publish the final model
+     * @param stage
+     */
+    private void train(Stage stage) {
+        long timeStart = System.currentTimeMillis();
+        ParallelTrainer trainer = new ParallelTrainer(MAX);
+        Random random = new Random(stage.level);
+        BoardState[] states = new BoardState[stage.size];
+        Byte[] labels = new Byte[stage.size];
+        ArrayList<double[]> inputs = new ArrayList<>(); // the samples trained on
+        ArrayList<Double> targets = new ArrayList<>();
+        ArrayList<double[]> validationInputs = new ArrayList<>();
+        ArrayList<Double> validationTargets = new ArrayList<>();
+        int received = 0;
+        int updates = 0;
+        int published = 0; // number of samples received when the last snapshot was published
+        while (received < stage.size) {
+            Object[] sample = null;
+            try { // wait for new samples only if the trainer has used up its updates
+                sample = (updates < (long) received * UPDATES_PER_BATCH / BATCH_SIZE) ?
+                        stage.queue.poll() : stage.queue.poll(WAIT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                logger.error("Interrupted while training the model for level " + stage.level);
+                System.exit(-1);
+            }
+            if (sample != null) {
+                states[received] = (BoardState) sample[0];
+                labels[received] = (Byte) sample[1];
+                double[] features = StateClassifier.getFeatures(states[received]);
+                if (received % VALIDATION_FQ == VALIDATION_FQ - 1) {
+                    validationInputs.add(features);
+                    validationTargets.add((double) labels[received]);
+                } else {
+                    inputs.add(features);
+                    targets.add((double) labels[received]);
+                }
+                received++;
+            } else if ((inputs.size() >= BATCH_SIZE) &&
+                    (updates < (long) received * UPDATES_PER_BATCH / BATCH_SIZE)) {
+                double[][] batchInputs = new double[BATCH_SIZE][];
+                double[] batchTargets = new double[BATCH_SIZE];
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    int index = random.nextInt(inputs.size());
+                    batchInputs[i] = inputs.get(index);
+                    batchTargets[i] = targets.get(index);
+                }
+                trainer.trainBatch(batchInputs, batchTargets);
+                updates++;
+            }
+            if ((received - published >= SNAPSHOT_INTERVAL) && (updates > 0)) {
+                stage.snapshot = StateClassifier.snapshot(trainer.getModel());
+                published = received;
+                logger.info("Level " + stage.level + ": snapshot published after " + received +
+                        " samples and " + updates + " updates, validation error " +
+                        trainer.getError(toArray(validationInputs),
+                                validationTargets.stream().mapToDouble(d -> d).toArray()));
+            }
+        }
+        logger.info("Dataset for level " + stage.level + " created in " +
+                Main.getDuration(System.currentTimeMillis() - timeStart) + ". Training the model");
+
+        Instances dataSet = StateClassifier.toInstances(stage.level,
+                new StateAnalyzer.DataSet(states, labels));
+        StateClassifier.saveDataSet(dataSet, StateClassifier.getDatasetFile(stage.level));
+        CompactModel model = new ParallelTrainer(dataSet).train();
+        ParallelTrainer.save(stage.level, model, dataSet);
+        stage.snapshot = new StateClassifier(model); // the final model is never replaced
+        logger.info("Model for level " + stage.level + " built in " +
+                Main.getDuration(System.currentTimeMillis() - timeStart));
+    }
+
+    /**
+     * Convert a list of inputs to an array
+     * @param list
+     * @return
+     */
+    private static double[][] toArray(ArrayList<double[]> list) {
+        return list.toArray(new double[0][]);
+    }
+
+    /**
+     * Wait a little for new work
+     */
+    private static void sleep() {
+        try {
+            Thread.sleep(WAIT);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for a model");
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package reversi;
+
+import java.io.File;
+
+/**
+ * Checks that AnytimeSolver.analyze() returns soon after the deadline when the initial state is
+ * searched, i.e. that the minimax searches that sort the moves are stopped as well (see
+ * SearchControl). Run from the root of the repository. Exits with -1, if the check fails
+ */
+public class AnytimeSolverTest {
+
+    private static final long TIME = 1000; // time given to the search, ms
+    private static final long MARGIN = 500; // time the search may take to stop, ms
+
+    public static void main(String[] args) {
+        // load the models first, so that the time it takes is not counted
+        for (int level : StateAnalyzer.getMinimaxEvaluationLevels()) {
+            File compact = new File(StateClassifier.getModelFile(level, true));
+            boolean converted = !compact.exists(); // the test should not leave the file behind
+            StateClassifier.getStateClassifier(level);
+            if (converted)
+                compact.delete();
+        }
+        long start = System.currentTimeMillis();
+        AnytimeSolver.Result result = AnytimeSolver.analyze(new BoardState(), start + TIME);
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println("Returned after " + elapsed + " ms, winner: " + result.winner);
+        if (elapsed > TIME + MARGIN) {
+            System.out.println("FAILED: the deadline was not honored");
+            System.exit(-1);
+        }
+        System.out.println("OK");
+    }
+}
@@ -0,0 +1,63 @@
+package reversi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import static reversi.BoardState.*;
+
+/**
+ * Checks that BoardState.fromString() restores the states printed by toString(), including the
+ * player to make a move of the states reached after a pass (whose codes are taken from their
+ * color-swapped twins, see BoardState.getCode()). Exits with -1, if a check fails
+ */
+public class BoardStateStringTest {
+
+    private static final int GAMES = 2000; // number of random games played to the end
+    private static final int MIN_PASSES = 100; // the games have to reach this many passes
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        int states = 0;
+        int passes = 0;
+        for (int game = 0; game < GAMES; game++) {
+            BoardState state = new BoardState();
+            boolean passed = false; // whether the player to make a move in state has passed
+            while (state.getLevel() < MAX) {
+                check(state);
+                states++;
+                ArrayList<BoardState> moves = state.getMoves(false, false);
+                if (moves.isEmpty()) {
+                    if (passed)
+                        break; // neither player can make a move
+                    state = new BoardState(state);
+                    state.reverseTurn();
+                    passed = true;
+                    passes++;
+                } else {
+                    state = moves.get(random.nextInt(moves.size()));
+                    passed = false;
+                }
+            }
+        }
+        System.out.println(states + " states checked, " + passes + " after a pass");
+        if (passes < MIN_PASSES) {
+            System.out.println("FAILED: too few states after a pass");
+            System.exit(-1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Check that a state survives the round trip through its string representation
+     * @param state
+     */
+    private static void check(BoardState state) {
+        BoardState restored = BoardState.fromString(state.toString());
+        if ((restored.getTurn() != state.getTurn()) ||
+                !Arrays.deepEquals(restored.getBoard(), state.getBoard()) ||
+                !restored.equals(state)) {
+            System.out.println("FAILED: the state\n" + state + "is restored as\n" + restored);
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package reversi;
+
+import weka.classifiers.functions.MultilayerPerceptron;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+import java.util.Random;
+import static reversi.BoardState.*;
+
+/**
+ * Converts the Weka models in models/ to the compact format (see CompactModel.fromWeka()) and
+ * checks that both give the same scores on random states of their levels. Run from the root of
+ * the repository. Exits with -1, if a check fails
+ */
+public class CompactModelTest {
+
+    private static final int[] LEVELS = {18, 20, 25}; // the levels of the models in models/
+    private static final int STATES = 1000; // number of states to compare the models on
+    private static final double TOLERANCE = 1e-5;
+    // the compact model stores the weights as floats, which costs a few millionths of a disk
+
+    public static void main(String[] args) throws Exception {
+        Instances header = new Instances("test", StateClassifier.attributes, 1);
+        header.setClassIndex(MAX);
+        Random random = new Random(0);
+        for (int level : LEVELS) {
+            MultilayerPerceptron perceptron = (MultilayerPerceptron) SerializationHelper.read(
+                    StateClassifier.getModelFile(level, false));
+            CompactModel model = CompactModel.fromWeka(perceptron);
+            double maxDifference = 0;
+            for (int i = 0; i < STATES; i++) {
+                BoardState state = StateAnalyzer.getRandomState(level, random);
+                if (state == null) {
+                    i--;
+                    continue;
+                }
+                Instance instance = StateClassifier.createInstance(state, null);
+                instance.setDataset(header);
+                double expected = perceptron.classifyInstance(instance);
+                double actual = model.evaluate(StateClassifier.getFeatures(state));
+                maxDifference = Math.max(maxDifference, Math.abs(expected - actual));
+            }
+            System.out.println("Level " + level + ": maximum difference " + maxDifference);
+            if (maxDifference > TOLERANCE) {
+                System.out.println("FAILED: the compact model differs from the Weka model");
+                System.exit(-1);
+            }
+        }
+        System.out.println("OK");
+    }
+}
@@ -0,0 +1,62 @@
+package reversi;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import static reversi.BoardState.*;
+
+/**
+ * Loads the models in models/ the way the search does (see StateClassifier.getStateClassifier())
+ * and checks that they come with an IncrementalEvaluator, i.e. that minimax evaluates the leaves
+ * incrementally, and that the evaluator gives the same scores as classify() along random games.
+ * Run from the root of the repository. Exits with -1, if a check fails
+ */
+public class IncrementalEvaluatorTest {
+
+    private static final int[] LEVELS = {18, 20, 25}; // the levels of the models in models/
+    private static final int GAMES = 200; // number of random games per level
+    private static final int DEPTH = 4; // number of random moves made in a game
+    private static final int TOLERANCE = 1;
+    // the evaluator quantizes the weights of the first layer, which can change the rounding
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        for (int level : LEVELS) {
+            File compact = new File(StateClassifier.getModelFile(level, true));
+            boolean converted = !compact.exists(); // the test should not leave the file behind
+            StateClassifier classifier = StateClassifier.getStateClassifier(level);
+            if (converted)
+                compact.delete();
+            int maxDifference = 0;
+            for (int game = 0; game < GAMES; game++) {
+                BoardState state = StateAnalyzer.getRandomState(level, random);
+                if (state == null) {
+                    game--;
+                    continue;
+                }
+                IncrementalEvaluator evaluator = classifier.getIncrementalEvaluator(state);
+                if (evaluator == null) {
+                    System.out.println("FAILED: no incremental evaluator for level " + level);
+                    System.exit(-1);
+                }
+                for (int move = 0; move < DEPTH; move++) {
+                    maxDifference = Math.max(maxDifference,
+                            Math.abs(evaluator.evaluate(state.getTurn()) -
+                                    classifier.classify(state)));
+                    ArrayList<BoardState> moves = state.getMoves(false, false);
+                    if (moves.isEmpty())
+                        break;
+                    BoardState child = moves.get(random.nextInt(moves.size()));
+                    evaluator.apply(state, child);
+                    state = child;
+                }
+            }
+            System.out.println("Level " + level + ": maximum difference " + maxDifference);
+            if (maxDifference > TOLERANCE) {
+                System.out.println("FAILED: the evaluator differs from classify()");
+                System.exit(-1);
+            }
+        }
+        System.out.println("OK");
+    }
+}
@@ -0,0 +1,81 @@
+package reversi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Writes a certificate for a random state, checks that it is verified, and then checks that the
+ * certificates with out-of-range tiles or winners are rejected instead of crashing the verifier
+ * (see ProofCertificate.verify()). Exits with -1, if a check fails
+ */
+public class ProofCertificateTest {
+
+    private static final int LEVEL = 24; // level of the state to prove
+    private static final byte LEAF_LEVEL = 30;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 16 + 1; // see ProofCertificate
+    private static final int RECORD_SIZE = 16 + 1;
+
+    public static void main(String[] args) throws IOException {
+        StateAnalyzer.useColdStore = false; // see resetDictionaries()
+        StateAnalyzer.multithreading = false;
+        Random random = new Random(0);
+        File file = File.createTempFile("certificate", ".bin");
+        try {
+            BoardState state = null;
+            long records = 0;
+            while (records == 0) { // a state whose certificate has a move to corrupt is needed
+                state = StateAnalyzer.getRandomState(LEVEL, random);
+                if (state == null)
+                    continue;
+                Disk winner = new StateAnalyzer(new BoardState(state)).analyze();
+                ProofCertificate.write(state, winner, file.getPath(), LEAF_LEVEL);
+                records = (file.length() - HEADER_SIZE) / RECORD_SIZE - 1;
+            }
+            Disk winner = ProofCertificate.verify(file.getPath(), state, 2);
+            System.out.println("Certificate with " + records + " moves: " + winner);
+            if (winner == null)
+                fail("the certificate is not verified");
+
+            byte[] original = Files.readAllBytes(file.toPath());
+            for (byte tile : new byte[] {BoardState.MAX, Byte.MAX_VALUE}) {
+                for (long i = 0; i < records; i++)
+                    write(file, HEADER_SIZE + i * RECORD_SIZE + 16, tile);
+                if (ProofCertificate.verify(file.getPath(), state, 2) != null)
+                    fail("a certificate with the tile " + tile + " is verified");
+                Files.write(file.toPath(), original);
+            }
+            write(file, HEADER_SIZE - 1, (byte) Disk.values().length);
+            if (ProofCertificate.verify(file.getPath(), state, 2) != null)
+                fail("a certificate with an unknown winner is verified");
+        } finally {
+            file.delete();
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Overwrite a byte of a file
+     * @param file
+     * @param position
+     * @param value
+     * @throws IOException
+     */
+    private static void write(File file, long position, byte value) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(position);
+            out.writeByte(value);
+        }
+    }
+
+    /**
+     * Report a failed check and exit
+     * @param message
+     */
+    private static void fail(String message) {
+        System.out.println("FAILED: " + message);
+        System.exit(-1);
+    }
+}
@@ -0,0 +1,64 @@
+package reversi;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Solves a state one level below the split level (see StateAnalyzer.multiThreadedAnalyze()) that is
+ * lost by the player to make a move, with multithreading on, and then other states in the same
+ * JVM. Checks that all the results are the same as those found single-threaded, i.e. that a state
+ * that is not part of a split does not terminate the later searches. Run from the root of the
+ * repository. Exits with -1, if a check fails
+ */
+public class SplitTerminationTest {
+
+    private static final int OTHER_LEVEL = 20; // level of the states solved after the first one
+    private static final int OTHER_STATES = 5;
+
+    public static void main(String[] args) {
+        StateAnalyzer.useColdStore = false; // see resetDictionaries()
+        StateAnalyzer.multithreading = false;
+        Random random = new Random(0);
+        int level = SearchProfile.current.multithreadingLevel + 1;
+        BoardState first;
+        do {
+            first = StateAnalyzer.getRandomState(level, random);
+        } while ((first == null) || (solve(first) != Disk.getReverse(first.getTurn())));
+        ArrayList<BoardState> others = new ArrayList<>();
+        ArrayList<Disk> expected = new ArrayList<>();
+        while (others.size() < OTHER_STATES) {
+            BoardState state = StateAnalyzer.getRandomState(OTHER_LEVEL, random);
+            if (state == null)
+                continue;
+            others.add(state);
+            expected.add(solve(state));
+        }
+
+        StateAnalyzer.multithreading = true;
+        StateAnalyzer.resetDictionaries();
+        Disk winner = new StateAnalyzer(new BoardState(first)).analyze();
+        if (winner != Disk.getReverse(first.getTurn())) {
+            System.out.println("FAILED: the first state is solved as " + winner);
+            System.exit(-1);
+        }
+        for (int i = 0; i < others.size(); i++) {
+            winner = new StateAnalyzer(new BoardState(others.get(i))).analyze();
+            System.out.println("State " + i + ": " + winner + ", expected " + expected.get(i));
+            if (winner != expected.get(i)) {
+                System.out.println("FAILED: a wrong result after the first state");
+                System.exit(-1);
+            }
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Solve a state with fresh dictionaries
+     * @param state
+     * @return
+     */
+    private static Disk solve(BoardState state) {
+        StateAnalyzer.resetDictionaries();
+        return new StateAnalyzer(new BoardState(state)).analyze();
+    }
+}